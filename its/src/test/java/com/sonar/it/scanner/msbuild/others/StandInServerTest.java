@@ -0,0 +1,94 @@
+/*
+ * SonarScanner for .NET
+ * Copyright (C) 2016-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.it.scanner.msbuild.others;
+
+import com.sonar.it.scanner.msbuild.utils.ScannerClassifier;
+import com.sonar.it.scanner.msbuild.utils.ScannerCommand;
+import com.sonar.it.scanner.msbuild.utils.StandInServer;
+import com.sonar.it.scanner.msbuild.utils.TestUtils;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Runs the scanner against exchanges replayed by a {@link StandInServer}, without starting a server.
+ * <p>
+ * The begin step replays the hand-written exchanges of {@code src/test/resources/stand-in/begin}. The end step needs the scanner
+ * engine and the plugins of a real server: to record a whole analysis, run this test with
+ * {@code -Dstandin.recordUrl=<server url> -Dstandin.token=<analysis token>}. The exchanges are written to
+ * {@code src/test/resources/stand-in/<project>}, and the whole analysis is skipped as long as no recording is checked in there.
+ */
+class StandInServerTest {
+  private static final String PROJECT = "CSharp.SDK.Latest";
+  private static final String RECORD_URL = System.getProperty("standin.recordUrl");
+  private static final String TOKEN = System.getProperty("standin.token", "stand-in-token");
+  private static final long TIMEOUT = 5 * 60 * 1000L;
+  private static final Path BEGIN_FIXTURES = Paths.get("src", "test", "resources", "stand-in", "begin");
+
+  @TempDir
+  public Path basePath;
+
+  @Test
+  void begin_handWrittenExchanges_writesRuleSet() throws Exception {
+    try (var server = StandInServer.replay(BEGIN_FIXTURES, basePath.resolve("reports"))) {
+      var projectDir = TestUtils.projectDir(basePath, PROJECT);
+
+      var begin = ScannerCommand.execute(ScannerCommand.begin(ScannerClassifier.NET, projectDir, server.url(), TOKEN, PROJECT), TIMEOUT);
+
+      assertThat(begin.isSuccess()).as(begin.getTail()).isTrue();
+      assertThat(server.misses()).isEmpty();
+      var config = projectDir.resolve(".sonarqube").resolve("conf");
+      assertThat(Files.readString(config.resolve("SonarQubeAnalysisConfig.xml"))).contains("<SonarQubeVersion>10.4.1.88267</SonarQubeVersion>");
+      assertThat(Files.readString(config.resolve("Sonar-cs.ruleset"))).contains("\"S1481\"");
+    }
+  }
+
+  @Test
+  void beginAndEnd_recordedServer_submitsReport() throws Exception {
+    var fixtures = Paths.get("src", "test", "resources", "stand-in", PROJECT);
+    assumeTrue(RECORD_URL != null || Files.isDirectory(fixtures), "No exchanges recorded for " + PROJECT);
+
+    try (var server = RECORD_URL == null ? StandInServer.replay(fixtures, basePath.resolve("reports")) : StandInServer.record(RECORD_URL, fixtures)) {
+      analyze(server.url());
+
+      if (RECORD_URL == null) {
+        assertThat(server.misses()).isEmpty();
+        assertThat(server.reports()).hasSize(1);
+      }
+    }
+  }
+
+  private void analyze(String serverUrl) throws IOException {
+    var projectDir = TestUtils.projectDir(basePath, PROJECT);
+
+    var begin = ScannerCommand.execute(ScannerCommand.begin(ScannerClassifier.NET, projectDir, serverUrl, TOKEN, PROJECT), TIMEOUT);
+    assertThat(begin.isSuccess()).as(begin.getTail()).isTrue();
+    var build = TestUtils.runDotnetCommand(projectDir, "build", "--no-incremental");
+    assertThat(build.isSuccess()).isTrue();
+    var end = ScannerCommand.execute(ScannerCommand.end(ScannerClassifier.NET, projectDir, TOKEN), TIMEOUT);
+    assertThat(end.isSuccess()).as(end.getTail()).isTrue();
+  }
+}
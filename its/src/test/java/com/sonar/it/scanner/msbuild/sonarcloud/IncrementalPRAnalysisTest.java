@@ -81,7 +81,7 @@ class IncrementalPRAnalysisTest {
 
   @Test
   void prWithChanges_detectsUnchangedFile() throws IOException {
-    var projectDir = TestUtils.projectDir(basePath, PROJECT_NAME);
+    var projectDir = TestUtils.projectDir(basePath, PROJECT_NAME, "IncrementalPRAnalysis/WithChanges.cs");
 
     SonarCloudUtils.runAnalysis(projectDir, SONARCLOUD_PROJECT_KEY); // Initial build - master.
     changeFile(projectDir, "IncrementalPRAnalysis\\WithChanges.cs"); // Change a file to force analysis.
@@ -92,7 +92,7 @@ class IncrementalPRAnalysisTest {
 
   @Test
   void prWithChanges_basedOnDifferentBranchThanMaster_detectsUnchangedFiles() throws IOException {
-    var projectDir = TestUtils.projectDir(basePath, PROJECT_NAME);
+    var projectDir = TestUtils.projectDir(basePath, PROJECT_NAME, "IncrementalPRAnalysis/WithChanges.cs");
 
     SonarCloudUtils.runAnalysis(projectDir, SONARCLOUD_PROJECT_KEY, "/d:sonar.branch.name=different-branch"); // Initial build - different branch.
     changeFile(projectDir, "IncrementalPRAnalysis\\WithChanges.cs"); // Change a file to force analysis.
@@ -59,7 +59,7 @@ class JreProvisioningTest {
     var beginResult = CommandExecutor.create().execute(beginCommand, logsConsumer, Constants.COMMAND_TIMEOUT);
     assertThat(beginResult).isOne();
 
-    assertThat(logWriter.toString()).contains(
+    TestUtils.containsAll(logWriter.toString(),
       "The arguments 'sonar.host.url' and 'sonar.scanner.sonarcloudUrl' are both set and are different. Please set either 'sonar.host" +
         ".url' for SonarQube or 'sonar.scanner.sonarcloudUrl' for SonarCloud.");
   }
@@ -72,10 +72,10 @@ class JreProvisioningTest {
 
     SonarCloudUtils.runBeginStep(projectDir, SONARCLOUD_PROJECT_KEY, logsConsumer, "/d:sonar.scanner.skipJreProvisioning=true");
 
-    assertThat(logWriter.toString()).contains(
+    TestUtils.containsAll(logWriter.toString(),
       "JreResolver: Resolving JRE path.",
       "JreResolver: sonar.scanner.skipJreProvisioning is set, skipping JRE provisioning.");
-    assertThat(logWriter.toString()).doesNotContain(
+    TestUtils.doesNotContainAny(logWriter.toString(),
       "JreResolver: Cache miss.",
       "JreResolver: Cache hit",
       "JreResolver: Cache failure.");
@@ -89,7 +89,7 @@ class JreProvisioningTest {
 
     var root = projectDir.toAbsolutePath().toString().replace("\\", "\\\\");
     // begin step
-    assertThat(logs).contains(
+    TestUtils.containsAll(logs,
       "JreResolver: Resolving JRE path.",
       "Downloading from " + Constants.SONARCLOUD_API_URL + "/analysis/jres?os=windows&arch=x64...",
       "Response received from " + Constants.SONARCLOUD_API_URL + "/analysis/jres?os=windows&arch=x64...",
@@ -119,10 +119,10 @@ class JreProvisioningTest {
 
     // first analysis, cache misses and downloads the JRE
     var cacheMissLogs = SonarCloudUtils.runAnalysis(projectDir, SONARCLOUD_PROJECT_KEY, extraParameters);
-    assertThat(cacheMissLogs).contains(
+    TestUtils.containsAll(cacheMissLogs,
       "JreResolver: Cache miss",
       "Starting the Java Runtime Environment download.");
-    assertThat(cacheMissLogs).doesNotContain(
+    TestUtils.doesNotContainAny(cacheMissLogs,
       "JreResolver: Cache hit",
       "JreResolver: Cache failure");
 
@@ -130,7 +130,7 @@ class JreProvisioningTest {
     var cacheHitLogs = SonarCloudUtils.runAnalysis(projectDir, SONARCLOUD_PROJECT_KEY, extraParameters);
     TestUtils.matchesSingleLine(cacheHitLogs,
       "JreResolver: Cache hit '" + root + "\\\\cache.+_extracted.+java.exe'");
-    assertThat(cacheHitLogs).doesNotContain(
+    TestUtils.doesNotContainAny(cacheHitLogs,
       "JreResolver: Cache miss",
       "Starting the Java Runtime Environment download.");
   }
@@ -158,7 +158,7 @@ class JreProvisioningTest {
     SonarCloudUtils.runEndStep(projectDir, logConsumer);
 
     var logs = logWriter.toString();
-    assertThat(logs).contains(
+    TestUtils.containsAll(logs,
       "Dumping content of sonar-project.properties",
       "sonar.scanner.sonarcloudUrl=" + Constants.SONARCLOUD_URL,
       "sonar.scanner.apiBaseUrl=" + Constants.SONARCLOUD_API_URL,
@@ -19,43 +19,48 @@
  */
 package com.sonar.it.scanner.msbuild.sonarcloud;
 
+import com.sonar.it.scanner.msbuild.utils.CeTaskWatcher;
+import com.sonar.it.scanner.msbuild.utils.LogMatcher;
+import com.sonar.it.scanner.msbuild.utils.SpooledBuildResult;
 import com.sonar.it.scanner.msbuild.utils.TestUtils;
-import com.sonar.orchestrator.http.HttpException;
 import com.sonar.orchestrator.util.Command;
-import com.sonar.orchestrator.util.CommandExecutor;
 import com.sonar.orchestrator.util.StreamConsumer;
 import java.io.File;
-import java.io.StringWriter;
 import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
 import java.nio.file.Path;
 import java.time.Duration;
-import java.util.regex.Matcher;
+import java.util.regex.MatchResult;
 import java.util.regex.Pattern;
+import javax.annotation.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import static org.assertj.core.api.Assertions.assertThat;
-import static org.awaitility.Awaitility.await;
 
 public class SonarCloudUtils {
   private final static Logger LOG = LoggerFactory.getLogger(SonarCloudUtils.class);
+  private static final Pattern REPORT_PROCESSING = Pattern.compile("INFO: More about the report processing at (.*)");
+  // The scanner is started without a shell, %SONARCLOUD_PROJECT_TOKEN% would not be expanded on the command line
+  private static final String TOKEN = System.getenv("SONARCLOUD_PROJECT_TOKEN");
+  private static final CeTaskWatcher TASK_WATCHER = new CeTaskWatcher("Bearer " + TOKEN, Duration.ofSeconds(120));
 
   public static String runAnalysis(Path projectDir, String projectKey, String... arguments) {
-    var logWriter = new StringWriter();
-    StreamConsumer.Pipe logsConsumer = new StreamConsumer.Pipe(logWriter);
+    var logs = new SpooledBuildResult();
+    var logsConsumer = new LogMatcher(new StreamConsumer.Pipe(logs.getLogsWriter())).expect(REPORT_PROCESSING);
 
-    runBeginStep(projectDir, projectKey, logsConsumer, arguments);
-    runBuild(projectDir);
-    runEndStep(projectDir, logsConsumer);
-    var logs = logWriter.toString();
-    waitForTaskProcessing(logs);
-    return logs;
+    try {
+      runBeginStep(projectDir, projectKey, logsConsumer, arguments);
+      runBuild(projectDir);
+      runEndStep(projectDir, logsConsumer);
+      logs.complete();
+      waitForTaskProcessing(logsConsumer.match(REPORT_PROCESSING));
+      return logs.getLogs();
+    } finally {
+      logs.delete();
+    }
   }
 
-  public static void runBeginStep(Path projectDir, String projectKey, StreamConsumer.Pipe logsConsumer, String... additionalArguments) {
+  public static void runBeginStep(Path projectDir, String projectKey, StreamConsumer logsConsumer, String... additionalArguments) {
     var beginCommand = Command.create(new File(Constants.SCANNER_PATH).getAbsolutePath())
       .setDirectory(projectDir.toFile())
       .addArgument("begin")
@@ -64,7 +69,7 @@ public class SonarCloudUtils {
       .addArgument("/d:sonar.host.url=" + Constants.SONARCLOUD_URL)
       .addArgument("/d:sonar.scanner.sonarcloudUrl=" + Constants.SONARCLOUD_URL)
       .addArgument("/d:sonar.scanner.apiBaseUrl=" + Constants.SONARCLOUD_API_URL)
-      .addArgument("/d:sonar.login=%SONARCLOUD_PROJECT_TOKEN%") // SonarCloud does not support yet sonar.token
+      .addArgument("/d:sonar.login=" + TOKEN) // SonarCloud does not support yet sonar.token
       .addArgument("/d:sonar.projectBaseDir=" + projectDir.toAbsolutePath())
       .addArgument("/d:sonar.verbose=true");
 
@@ -74,50 +79,32 @@ public class SonarCloudUtils {
     }
 
     LOG.info("Scanner path: {}", Constants.SCANNER_PATH);
-    LOG.info("Command line: {}", beginCommand.toCommandLine());
+    LOG.info("Command line: {}", TOKEN == null ? beginCommand.toCommandLine() : beginCommand.toCommandLine().replace(TOKEN, "***"));
 
-    var beginResult = CommandExecutor.create().execute(beginCommand, logsConsumer, Constants.COMMAND_TIMEOUT);
+    var beginResult = new LogMatcher(logsConsumer).failOn(LogMatcher.SCANNER_FATAL).execute(beginCommand, Constants.COMMAND_TIMEOUT);
     assertThat(beginResult).isZero();
   }
 
-  public static void runEndStep(Path projectDir, StreamConsumer.Pipe logConsumer) {
+  public static void runEndStep(Path projectDir, StreamConsumer logConsumer) {
     var endCommand = Command.create(new File(Constants.SCANNER_PATH).getAbsolutePath())
       .setDirectory(projectDir.toFile())
       .addArgument("end")
-      .addArgument("/d:sonar.login=%SONARCLOUD_PROJECT_TOKEN%"); // SonarCloud does not support yet sonar.token
+      .addArgument("/d:sonar.login=" + TOKEN); // SonarCloud does not support yet sonar.token
 
-    var endResult = CommandExecutor.create().execute(endCommand, logConsumer, Constants.COMMAND_TIMEOUT);
+    var endResult = new LogMatcher(logConsumer).failOn(LogMatcher.SCANNER_FATAL).execute(endCommand, Constants.COMMAND_TIMEOUT);
     assertThat(endResult).isZero();
   }
 
   public static void runBuild(Path projectDir) {
     var result = TestUtils.runDotnetCommand(projectDir, "build", "--no-incremental");
+    result.delete();
     assertThat(result.isSuccess()).isTrue();
   }
 
-  private static void waitForTaskProcessing(String logs) {
-    Pattern pattern = Pattern.compile("INFO: More about the report processing at (.*)");
-    Matcher matcher = pattern.matcher(logs);
-    if (matcher.find())
-    {
-      var uri = URI.create(matcher.group(1));
-      var client = HttpClient.newHttpClient();
-
-      await()
-        .pollInterval(Duration.ofSeconds(5))
-        .atMost(Duration.ofSeconds(120))
-        .until(() -> {
-          try
-          {
-            LOG.info("Pooling for task status using {}", uri);
-            var request = HttpRequest.newBuilder(uri).header("Authorization", "Bearer " + System.getenv("SONARCLOUD_PROJECT_TOKEN")).build();
-            var response = client.send(request, HttpResponse.BodyHandlers.ofString());
-            return response.statusCode() == 200 && response.body().contains("\"status\":\"SUCCESS\"");
-          }
-          catch (HttpException ex) {
-            return false;
-          }
-        });
+  private static void waitForTaskProcessing(@Nullable MatchResult reportProcessing) {
+    // Matched while the end step runs, the logs are not searched again
+    if (reportProcessing != null) {
+      TASK_WATCHER.watch(URI.create(reportProcessing.group(1).trim())).join();
     }
   }
-}
\ No newline at end of file
+}
@@ -20,11 +20,12 @@
 package com.sonar.it.scanner.msbuild.sonarqube;
 
 import com.sonar.it.scanner.msbuild.utils.EnvironmentVariable;
+import com.sonar.it.scanner.msbuild.utils.HarnessProfiler;
+import com.sonar.it.scanner.msbuild.utils.PhaseTimings;
 import com.sonar.it.scanner.msbuild.utils.TestUtils;
 import com.sonar.orchestrator.build.BuildResult;
 import java.util.stream.Stream;
 import org.jetbrains.annotations.NotNull;
-import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.junit.jupiter.api.io.TempDir;
@@ -47,7 +48,7 @@ import static org.assertj.core.api.Assertions.tuple;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assumptions.assumeFalse;
 
-@ExtendWith(Tests.class)
+@ExtendWith({Tests.class, PhaseTimings.class, HarnessProfiler.class})
 class CodeCoverageTest {
   private static final String PROJECT_KEY = "code-coverage";
   private static final String PROJECT_NAME = "CodeCoverage";
@@ -55,11 +56,6 @@ class CodeCoverageTest {
   @TempDir
   public Path basePath;
 
-  @BeforeEach
-  public void setUp() {
-    TestUtils.reset(ORCHESTRATOR);
-  }
-
   @Test
   void whenRunningOutsideAzureDevops_coverageIsNotImported() throws Exception {
     // When running in AzureDevOps some of the environment variables are set and cannot be overwritten.
@@ -108,7 +104,7 @@ class CodeCoverageTest {
     var projectDir = TestUtils.projectDir(basePath, projectName);
     var token = TestUtils.getNewToken(ORCHESTRATOR);
 
-    ORCHESTRATOR.getServer().provisionProject(projectName, projectName);
+    TestUtils.provisionProject(ORCHESTRATOR, projectName, projectName);
     var scanner = TestUtils.newScanner(ORCHESTRATOR, projectDir, token)
       .addArgument("begin")
       .setProjectKey(projectName)
@@ -117,7 +113,7 @@ class CodeCoverageTest {
       .setProperty("sonar.verbose", "true")
       .setProperty("sonar.cs.dotcover.reportsPaths", "dotCover.Output.html")
       .setProjectVersion("1.0");
-    var beginStepResult = ORCHESTRATOR.executeBuild(scanner);
+    var beginStepResult = TestUtils.executeBuild(ORCHESTRATOR, scanner);
     assertTrue(beginStepResult.isSuccess());
 
     TestUtils.runDotnetCommand(projectDir, "build", "--no-incremental");
@@ -163,8 +159,7 @@ class CodeCoverageTest {
     var projectDir = TestUtils.projectDir(basePath, projectName);
     var token = TestUtils.getNewToken(ORCHESTRATOR);
 
-    var server = ORCHESTRATOR.getServer();
-    server.provisionProject(projectKey, projectName);
+    TestUtils.provisionProject(ORCHESTRATOR, projectKey, projectName);
 
     var scanner = TestUtils.newScanner(ORCHESTRATOR, projectDir, token)
       .addArgument("begin")
@@ -191,7 +186,7 @@ class CodeCoverageTest {
       TestUtils.updateSetting(ORCHESTRATOR, projectKey, "sonar.cs.vscoveragexml.reportsPaths", List.of(serverCoverageReportPath));
     }
 
-    var beginStepResult = ORCHESTRATOR.executeBuild(scanner);
+    var beginStepResult = TestUtils.executeBuild(ORCHESTRATOR, scanner);
     assertTrue(beginStepResult.isSuccess());
 
     TestUtils.runDotnetCommand(projectDir, "build", "--no-incremental");
@@ -211,7 +206,7 @@ class CodeCoverageTest {
   }
 
   private static void runBeginStep(Path projectDir, String token, List<EnvironmentVariable> environmentVariables) {
-      ORCHESTRATOR.getServer().provisionProject(PROJECT_KEY, PROJECT_NAME);
+      TestUtils.provisionProject(ORCHESTRATOR, PROJECT_KEY, PROJECT_NAME);
       var scanner = TestUtils.newScanner(ORCHESTRATOR, projectDir, token)
         .addArgument("begin")
         .setProjectKey(PROJECT_KEY)
@@ -222,7 +217,7 @@ class CodeCoverageTest {
       for (var environmentVariable : environmentVariables) {
         scanner.setEnvironmentVariable(environmentVariable.getName(), environmentVariable.getValue());
       }
-      var beginStepResult = ORCHESTRATOR.executeBuild(scanner);
+      var beginStepResult = TestUtils.executeBuild(ORCHESTRATOR, scanner);
       assertTrue(beginStepResult.isSuccess());
   }
 
@@ -19,6 +19,8 @@
  */
 package com.sonar.it.scanner.msbuild.sonarqube;
 
+import com.sonar.it.scanner.msbuild.utils.HarnessProfiler;
+import com.sonar.it.scanner.msbuild.utils.PhaseTimings;
 import com.sonar.it.scanner.msbuild.utils.TestUtils;
 import com.sonar.orchestrator.build.BuildResult;
 import com.sonar.orchestrator.locator.FileLocation;
@@ -31,7 +33,6 @@ import java.nio.file.Paths;
 import java.util.List;
 import java.util.stream.Collectors;
 import org.apache.commons.io.FileUtils;
-import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.junit.jupiter.api.io.TempDir;
@@ -45,32 +46,27 @@ import static org.assertj.core.api.Assertions.assertThat;
  *
  */
 // See task https://github.com/SonarSource/sonar-scanner-msbuild/issues/789
-@ExtendWith(Tests.class)
+@ExtendWith({Tests.class, PhaseTimings.class, HarnessProfiler.class})
 class CppTest {
 
   @TempDir
   public Path basePath;
 
-  @BeforeEach
-  public void setUp(){
-    TestUtils.reset(ORCHESTRATOR);
-  }
-
   @Test
   void testCppOnly() throws Exception {
     String projectKey = "cpp";
     String fileKey = TestUtils.hasModules(ORCHESTRATOR) ? "cpp:cpp:A8B8B694-4489-4D82-B9A0-7B63BF0B8FCE:ConsoleApp.cpp" : "cpp:ConsoleApp.cpp";
 
-    ORCHESTRATOR.getServer().restoreProfile(FileLocation.of("src/test/resources/TestQualityProfileCpp.xml"));
-    ORCHESTRATOR.getServer().provisionProject(projectKey, "Cpp");
-    ORCHESTRATOR.getServer().associateProjectToQualityProfile(projectKey, "cpp", "ProfileForTestCpp");
+    TestUtils.restoreProfile(ORCHESTRATOR, FileLocation.of("src/test/resources/TestQualityProfileCpp.xml"));
+    TestUtils.provisionProject(ORCHESTRATOR, projectKey, "Cpp");
+    TestUtils.associateProjectToQualityProfile(ORCHESTRATOR, projectKey, "cpp", "ProfileForTestCpp");
 
     Path projectDir = TestUtils.projectDir(basePath, "CppSolution");
     File wrapperOutDir = new File(projectDir.toFile(), "out");
 
     String token = TestUtils.getNewToken(ORCHESTRATOR);
 
-    ORCHESTRATOR.executeBuild(TestUtils.newScanner(ORCHESTRATOR, projectDir, token)
+    TestUtils.executeBuild(ORCHESTRATOR, TestUtils.newScanner(ORCHESTRATOR, projectDir, token)
       .addArgument("begin")
       .setProjectKey(projectKey)
       .setProjectName("Cpp")
@@ -109,16 +105,16 @@ class CppTest {
     String projectKey = "cpp-shared";
     String fileKey = TestUtils.hasModules(ORCHESTRATOR) ? "cpp-shared:cpp-shared:90BD7FAF-0B72-4D37-9610-D7C92B217BB0:Project1.cpp" : "cpp-shared:Project1/Project1.cpp";
 
-    ORCHESTRATOR.getServer().restoreProfile(FileLocation.of("src/test/resources/TestQualityProfileCpp.xml"));
-    ORCHESTRATOR.getServer().provisionProject(projectKey, "Cpp");
-    ORCHESTRATOR.getServer().associateProjectToQualityProfile(projectKey, "cpp", "ProfileForTestCpp");
+    TestUtils.restoreProfile(ORCHESTRATOR, FileLocation.of("src/test/resources/TestQualityProfileCpp.xml"));
+    TestUtils.provisionProject(ORCHESTRATOR, projectKey, "Cpp");
+    TestUtils.associateProjectToQualityProfile(ORCHESTRATOR, projectKey, "cpp", "ProfileForTestCpp");
 
     Path projectDir = TestUtils.projectDir(basePath, "CppSharedFiles");
     File wrapperOutDir = new File(projectDir.toFile(), "out");
 
     String token = TestUtils.getNewToken(ORCHESTRATOR);
 
-    ORCHESTRATOR.executeBuild(TestUtils.newScanner(ORCHESTRATOR, projectDir, token)
+    TestUtils.executeBuild(ORCHESTRATOR, TestUtils.newScanner(ORCHESTRATOR, projectDir, token)
       .addArgument("begin")
       .setProjectKey(projectKey)
       .setProjectName("Cpp")
@@ -19,24 +19,51 @@
  */
 package com.sonar.it.scanner.msbuild.sonarqube;
 
+import com.sonar.it.scanner.msbuild.utils.HarnessProfiler;
+import com.sonar.it.scanner.msbuild.utils.JreStandIn;
+import com.sonar.it.scanner.msbuild.utils.LogTimeline;
+import com.sonar.it.scanner.msbuild.utils.PhaseTimings;
+import com.sonar.it.scanner.msbuild.utils.ProcessTreeSampler;
+import com.sonar.it.scanner.msbuild.utils.ScannerClassifier;
+import com.sonar.it.scanner.msbuild.utils.ScannerCommand;
 import com.sonar.it.scanner.msbuild.utils.TestUtils;
 import com.sonar.orchestrator.build.BuildResult;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import static com.sonar.it.scanner.msbuild.sonarqube.Tests.ORCHESTRATOR;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
-@ExtendWith(Tests.class)
+@ExtendWith({Tests.class, PhaseTimings.class, HarnessProfiler.class})
 public class JreProvisioningTest {
   private static final String PROJECT_KEY = "jre-provisioning";
   private static final String PROJECT_NAME = "JreProvisioning";
+  private static final Logger LOG = LoggerFactory.getLogger(JreProvisioningTest.class);
+  private static final long PROVISIONING_TIMEOUT = TimeUnit.MINUTES.toMillis(10);
+  private static final String CACHE_MISS = "JreResolver: Cache miss";
+  private static final String CACHE_HIT = "JreResolver: Cache hit";
+  private static final String CACHE_FAILURE = "JreResolver: Cache failure";
+  private static final String DOWNLOAD_SUCCESS = "JreResolver: Download success";
+  private static final String CHECKSUM_VERIFIED = "The checksum of the downloaded file is";
+  private static final String EXTRACTION_STARTED = "Starting extracting the Java runtime environment";
+  private static final String MOVE_STARTED = "Moving extracted Java runtime environment";
+  private static final String JRE_ADDED = "The Java runtime environment was successfully added";
 
   private String token;
   private Path projectDir;
@@ -46,7 +73,6 @@ public class JreProvisioningTest {
 
   @BeforeEach
   public void setUp() throws IOException {
-    TestUtils.reset(ORCHESTRATOR);
     token = TestUtils.getNewToken(ORCHESTRATOR);
     projectDir = TestUtils.projectDir(basePath, PROJECT_NAME);
   }
@@ -56,7 +82,7 @@ public class JreProvisioningTest {
     // provisioning does not exist before 10.6
     assumeTrue(ORCHESTRATOR.getServer().version().isGreaterThanOrEquals(10, 6));
     var projectKey = PROJECT_KEY +".1";
-    ORCHESTRATOR.getServer().provisionProject(projectKey, PROJECT_NAME);
+    TestUtils.provisionProject(ORCHESTRATOR, projectKey, PROJECT_NAME);
 
     var beginResult = BeginStep(projectDir, token);
     var buildResult = TestUtils.runDotnetCommand(projectDir, "build", "--no-incremental");
@@ -70,7 +96,7 @@ public class JreProvisioningTest {
     var endLogs = endResult.getLogs();
     var root = projectDir.toAbsolutePath().toString().replace("\\", "\\\\");
 
-    assertThat(beginLogs).contains(
+    TestUtils.containsAll(beginLogs,
       "JreResolver: Resolving JRE path.",
       "Downloading from " + ORCHESTRATOR.getServer().getUrl() + "/api/v2/analysis/jres?os=windows&arch=x64...",
       "Response received from " + ORCHESTRATOR.getServer().getUrl() + "/api/v2/analysis/jres?os=windows&arch=x64...",
@@ -98,16 +124,16 @@ public class JreProvisioningTest {
     // provisioning does not exist before 10.6
     assumeTrue(ORCHESTRATOR.getServer().version().isGreaterThanOrEquals(10, 6));
     var projectKey = PROJECT_KEY +".2";
-    ORCHESTRATOR.getServer().provisionProject(projectKey, PROJECT_NAME);
+    TestUtils.provisionProject(ORCHESTRATOR, projectKey, PROJECT_NAME);
 
     // first analysis, cache misses and downloads the JRE
     var firstBegin = BeginStep(projectDir, token);
 
     assertThat(firstBegin.isSuccess()).isTrue();
-    assertThat(firstBegin.getLogs()).contains(
+    TestUtils.containsAll(firstBegin.getLogs(),
       "JreResolver: Cache miss",
       "Starting the Java Runtime Environment download.");
-    assertThat(firstBegin.getLogs()).doesNotContain(
+    TestUtils.doesNotContainAny(firstBegin.getLogs(),
       "JreResolver: Cache hit",
       "JreResolver: Cache failure");
 
@@ -117,14 +143,123 @@ public class JreProvisioningTest {
     assertThat(secondBegin.isSuccess()).isTrue();
     TestUtils.matchesSingleLine(secondBegin.getLogs(),
       "JreResolver: Cache hit '" + projectDir.toAbsolutePath().toString().replace("\\", "\\\\") + "\\\\cache.+_extracted.+java.exe'");
-    assertThat(secondBegin.getLogs()).doesNotContain(
+    TestUtils.doesNotContainAny(secondBegin.getLogs(),
       "JreResolver: Cache miss",
       "JreResolver: Cache failure",
       "Starting the Java Runtime Environment download.");
   }
 
+  @Test
+  void jreProvisioning_benchmark() throws Exception {
+    // provisioning does not exist before 10.6
+    assumeTrue(ORCHESTRATOR.getServer().version().isGreaterThanOrEquals(10, 6));
+    var sizes = System.getProperty("jre.benchmark.sizes");
+    assumeTrue(sizes != null, "Set -Djre.benchmark.sizes=<archive size in MB, comma separated> to run the JRE provisioning benchmark");
+    var projectKey = PROJECT_KEY + ".benchmark";
+    TestUtils.provisionProject(ORCHESTRATOR, projectKey, PROJECT_NAME);
+
+    for (var size : sizes.split(",")) {
+      benchmark(projectKey, Integer.parseInt(size.trim()));
+    }
+  }
+
+  private void benchmark(String projectKey, int megabytes) throws Exception {
+    var userHome = Files.createDirectories(basePath.resolve("userHome-" + megabytes));
+    var timeline = new LogTimeline(CHECKSUM_VERIFIED, EXTRACTION_STARTED, MOVE_STARTED, JRE_ADDED);
+    try (var standIn = new JreStandIn(ORCHESTRATOR.getServer().getUrl(), megabytes, basePath)) {
+      // Only the process tree of this begin step is sampled, the test classes running in parallel start their own scanners
+      var begin = ScannerCommand.measure(ScannerCommand.begin(ScannerClassifier.NET_FRAMEWORK, projectDir, standIn.url(), token, projectKey,
+        "sonar.projectBaseDir=" + projectDir.resolve(PROJECT_NAME),
+        "sonar.userHome=" + userHome,
+        "sonar.verbose=true"), PROVISIONING_TIMEOUT, timeline);
+
+      assertThat(begin.isSuccess()).isTrue();
+      assertThat(standIn.downloadEnd()).isPositive();
+      var checksumVerified = timeline.arrival(CHECKSUM_VERIFIED).orElseThrow();
+      var extractionStarted = timeline.arrival(EXTRACTION_STARTED).orElseThrow();
+      var moveStarted = timeline.arrival(MOVE_STARTED).orElseThrow();
+      var jreAdded = timeline.arrival(JRE_ADDED).orElseThrow();
+      try (var javaExe = Files.walk(userHome.resolve("cache"))) {
+        assertThat(javaExe.filter(x -> x.endsWith(Paths.get(JreStandIn.JAVA_PATH)) && x.toString().contains("_extracted"))).hasSize(1);
+      }
+
+      var memory = begin.getResourceUsages().get(0);
+      var bytes = standIn.archiveSize();
+      LOG.info("JRE provisioning of a {} MB archive: {}, {}, {}, {}", megabytes,
+        phase("download", bytes, standIn.downloadStart(), standIn.downloadEnd(), memory),
+        phase("checksum", bytes, standIn.downloadEnd(), checksumVerified, memory),
+        phase("extraction", bytes, extractionStarted, moveStarted, memory),
+        phase("move to _extracted", bytes, moveStarted, jreAdded, memory));
+    }
+  }
+
+  @Test
+  void jreProvisioning_concurrentCacheMisses_downloadOnce() throws Exception {
+    // provisioning does not exist before 10.6
+    assumeTrue(ORCHESTRATOR.getServer().version().isGreaterThanOrEquals(10, 6));
+    var concurrency = Integer.getInteger("jre.stress.concurrency", 0);
+    assumeTrue(concurrency > 1, "Set -Djre.stress.concurrency=<number of begin steps> to run the concurrent JRE provisioning stress test");
+    var projectKey = PROJECT_KEY + ".stress";
+    TestUtils.provisionProject(ORCHESTRATOR, projectKey, PROJECT_NAME);
+    // One cache shared by all the begin steps, as on agents running several pipelines
+    var userHome = Files.createDirectories(basePath.resolve("sharedUserHome"));
+
+    try (var standIn = new JreStandIn(ORCHESTRATOR.getServer().getUrl(), 64, basePath)) {
+      var start = new CountDownLatch(1);
+      var executor = Executors.newFixedThreadPool(concurrency);
+      try {
+        var runs = new ArrayList<Future<StressRun>>();
+        for (int i = 0; i < concurrency; i++) {
+          var runnerDir = TestUtils.projectDir(basePath.resolve("runner-" + i), PROJECT_NAME);
+          runs.add(executor.submit(() -> {
+            var timeline = new LogTimeline(CACHE_MISS, CACHE_HIT, DOWNLOAD_SUCCESS);
+            var command = ScannerCommand.begin(ScannerClassifier.NET_FRAMEWORK, runnerDir, standIn.url(), token, projectKey,
+              "sonar.projectBaseDir=" + runnerDir.resolve(PROJECT_NAME),
+              "sonar.userHome=" + userHome,
+              "sonar.verbose=true");
+            start.await();
+            var started = System.nanoTime();
+            var result = ScannerCommand.execute(command, PROVISIONING_TIMEOUT, timeline);
+            var resolved = timeline.arrival(CACHE_HIT).orElse(timeline.arrival(DOWNLOAD_SUCCESS).orElse(started));
+            return new StressRun(result, timeline.arrival(CACHE_MISS).isPresent(), timeline.arrival(CACHE_HIT).isPresent(),
+              TimeUnit.NANOSECONDS.toMillis(resolved - started), result.getLogsLines(x -> x.contains(CACHE_FAILURE)));
+          }));
+        }
+        start.countDown();
+        var results = new ArrayList<StressRun>();
+        for (var run : runs) {
+          results.add(run.get());
+        }
+
+        var failures = results.stream().flatMap(x -> x.cacheFailures().stream()).toList();
+        LOG.info("{} concurrent begin steps: {} JRE download(s), {} cache hit(s), JRE resolved after {} ms, {} cache failure(s){}", concurrency,
+          standIn.downloads(),
+          results.stream().filter(StressRun::cacheHit).count(),
+          results.stream().map(x -> Long.toString(x.resolutionMillis())).collect(Collectors.joining(", ")),
+          failures.size(),
+          failures.stream().map(x -> System.lineSeparator() + "  " + x).collect(Collectors.joining()));
+        assertThat(results).allMatch(x -> x.result().isSuccess());
+        assertThat(failures).isEmpty();
+        assertThat(standIn.downloads()).isOne();
+        assertThat(results).filteredOn(StressRun::cacheMiss).hasSize(1);
+        assertThat(results).filteredOn(StressRun::cacheHit).hasSize(concurrency - 1);
+      } finally {
+        executor.shutdownNow();
+      }
+    }
+  }
+
+  private record StressRun(BuildResult result, boolean cacheMiss, boolean cacheHit, long resolutionMillis, List<String> cacheFailures) {
+  }
+
+  private static String phase(String name, long bytes, long startNanos, long endNanos, ProcessTreeSampler.ResourceUsage memory) {
+    var millis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(endNanos - startNanos));
+    return String.format("%s %d ms (%.1f MB/s, peak memory %d MB)", name, millis, bytes / 1024.0 / 1024.0 * 1000 / millis,
+      memory.peakRssBytes(startNanos, endNanos) / 1024 / 1024);
+  }
+
   private static BuildResult BeginStep(Path projectDir, String token) {
-    return ORCHESTRATOR.executeBuild(TestUtils.newScanner(ORCHESTRATOR, projectDir, token)
+    return TestUtils.executeBuild(ORCHESTRATOR, TestUtils.newScanner(ORCHESTRATOR, projectDir, token)
       .addArgument("begin")
       .setProjectKey(PROJECT_KEY)
       .setProjectName(PROJECT_NAME)
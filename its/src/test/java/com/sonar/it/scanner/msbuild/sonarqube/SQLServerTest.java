@@ -19,12 +19,13 @@
  */
 package com.sonar.it.scanner.msbuild.sonarqube;
 
+import com.sonar.it.scanner.msbuild.utils.HarnessProfiler;
+import com.sonar.it.scanner.msbuild.utils.PhaseTimings;
 import com.sonar.it.scanner.msbuild.utils.TestUtils;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
 
-import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.junit.jupiter.api.io.TempDir;
@@ -34,23 +35,18 @@ import static com.sonar.it.scanner.msbuild.sonarqube.Tests.ORCHESTRATOR;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
-@ExtendWith(Tests.class)
+@ExtendWith({Tests.class, PhaseTimings.class, HarnessProfiler.class})
 class SQLServerTest {
   private static final String PROJECT_KEY = "my.project";
 
   @TempDir
   public Path basePath;
 
-  @BeforeEach
-  public void setUp() {
-    TestUtils.reset(ORCHESTRATOR);
-  }
-
   @Test
   void should_find_issues_in_cs_files() throws Exception {
     Path projectDir = TestUtils.projectDir(basePath, "SQLServerSolution");
     String token = TestUtils.getNewToken(ORCHESTRATOR);
-    ORCHESTRATOR.executeBuild(TestUtils.newScanner(ORCHESTRATOR, projectDir, token)
+    TestUtils.executeBuild(ORCHESTRATOR, TestUtils.newScanner(ORCHESTRATOR, projectDir, token)
       .addArgument("begin")
       .setProjectKey(PROJECT_KEY)
       .setProjectName("sample")
@@ -22,20 +22,25 @@ package com.sonar.it.scanner.msbuild.sonarqube;
 import com.eclipsesource.json.Json;
 import com.sonar.it.scanner.msbuild.utils.AzureDevOpsUtils;
 import com.sonar.it.scanner.msbuild.utils.EnvironmentVariable;
+import com.sonar.it.scanner.msbuild.utils.HarnessProfiler;
+import com.sonar.it.scanner.msbuild.utils.NetworkProfile;
+import com.sonar.it.scanner.msbuild.utils.PhaseTimer;
+import com.sonar.it.scanner.msbuild.utils.PhaseTimings;
 import com.sonar.it.scanner.msbuild.utils.ProxyAuthenticator;
+import com.sonar.it.scanner.msbuild.utils.ProxyFixture;
+import com.sonar.it.scanner.msbuild.utils.ProxyTraffic;
 import com.sonar.it.scanner.msbuild.utils.ScannerClassifier;
+import com.sonar.it.scanner.msbuild.utils.ScannerCommand;
+import com.sonar.it.scanner.msbuild.utils.ShapingProxy;
+import com.sonar.it.scanner.msbuild.utils.SyntheticSolution;
 import com.sonar.it.scanner.msbuild.utils.TestUtils;
 import com.sonar.orchestrator.build.BuildResult;
 import com.sonar.orchestrator.build.ScannerForMSBuild;
-import com.sonar.orchestrator.http.HttpException;
+import com.sonar.orchestrator.build.SynchronousAnalyzer;
 import com.sonar.orchestrator.locator.FileLocation;
 import com.sonar.orchestrator.util.Command;
 import com.sonar.orchestrator.util.CommandExecutor;
-import com.sonar.orchestrator.util.NetworkUtils;
 import com.sonar.orchestrator.version.Version;
-import jakarta.servlet.ServletException;
-import jakarta.servlet.http.HttpServletRequest;
-import jakarta.servlet.http.HttpServletResponse;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
@@ -45,38 +50,29 @@ import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Function;
+import java.util.function.ToLongFunction;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang.StringUtils;
-import org.eclipse.jetty.client.api.Request;
-import org.eclipse.jetty.proxy.ProxyServlet;
-import org.eclipse.jetty.security.ConstraintMapping;
-import org.eclipse.jetty.security.ConstraintSecurityHandler;
-import org.eclipse.jetty.security.HashLoginService;
-import org.eclipse.jetty.security.SecurityHandler;
-import org.eclipse.jetty.security.UserStore;
-import org.eclipse.jetty.server.Handler;
-import org.eclipse.jetty.server.HttpConfiguration;
-import org.eclipse.jetty.server.HttpConnectionFactory;
-import org.eclipse.jetty.server.Server;
-import org.eclipse.jetty.server.ServerConnector;
-import org.eclipse.jetty.server.handler.DefaultHandler;
-import org.eclipse.jetty.server.handler.HandlerCollection;
-import org.eclipse.jetty.servlet.ServletContextHandler;
-import org.eclipse.jetty.servlet.ServletHandler;
-import org.eclipse.jetty.util.security.Constraint;
-import org.eclipse.jetty.util.security.Credential;
-import org.eclipse.jetty.util.thread.QueuedThreadPool;
-import org.junit.jupiter.api.AfterEach;
-import org.junit.jupiter.api.BeforeEach;
+import org.awaitility.pollinterval.IterativePollInterval;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.sonarqube.ws.Ce;
@@ -97,7 +93,7 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assumptions.assumeFalse;
 import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
-@ExtendWith(Tests.class)
+@ExtendWith({Tests.class, PhaseTimings.class, HarnessProfiler.class})
 class ScannerMSBuildTest {
   final static Logger LOG = LoggerFactory.getLogger(ScannerMSBuildTest.class);
 
@@ -107,38 +103,42 @@ class ScannerMSBuildTest {
   private static final String PROJECT_KEY = "my.project";
   private static final String PROXY_USER = "scott";
   private static final String PROXY_PASSWORD = "tiger";
-  private static Server server;
-  private static int httpProxyPort;
-
-  private static final ConcurrentLinkedDeque<String> seenByProxy = new ConcurrentLinkedDeque<>();
+  private static final Duration MAX_POLL_INTERVAL = Duration.ofSeconds(10);
+  // Shared by the wait for the webhook and the polling that follows it
+  private static final Duration CACHE_INITIALIZATION_TIMEOUT = Duration.ofSeconds(120);
+  private static final int PROXY_CREDENTIALS_CACHE_SIZE = 100;
+  private static final Duration PROXY_CREDENTIALS_TTL = Duration.ofMinutes(5);
+  // Exponent of the project count above which the end step grows superlinearly, with some room for noise
+  private static final double END_SCALING_MAX_EXPONENT = 1.3;
+  private static final double SCALING_FIT_MAX_EXPONENT = 3;
+  private static final double SCALING_FIT_STEP = 0.05;
+  private static final long END_SCALING_TIMEOUT = TimeUnit.MINUTES.toMillis(30);
+  private static ProxyFixture proxy;
 
   @TempDir
   public Path basePath;
 
-  @BeforeEach
-  public void setUp() {
-    TestUtils.reset(ORCHESTRATOR);
-    seenByProxy.clear();
+  @BeforeAll
+  static void startProxy() throws Exception {
+    proxy = new ProxyFixture(PROXY_USER, PROXY_PASSWORD);
   }
 
-  @AfterEach
-  public void stopProxy() throws Exception {
-    if (server != null && server.isStarted()) {
-      server.stop();
-    }
+  @AfterAll
+  static void stopProxy() throws Exception {
+    proxy.close();
   }
 
   @Test
   void testSample() throws Exception {
     String localProjectKey = PROJECT_KEY + ".2";
-    ORCHESTRATOR.getServer().restoreProfile(FileLocation.of("projects/ProjectUnderTest/TestQualityProfile.xml"));
-    ORCHESTRATOR.getServer().provisionProject(localProjectKey, "sample");
-    ORCHESTRATOR.getServer().associateProjectToQualityProfile(localProjectKey, "cs", "ProfileForTest");
+    TestUtils.restoreProfile(ORCHESTRATOR, FileLocation.of("projects/ProjectUnderTest/TestQualityProfile.xml"));
+    TestUtils.provisionProject(ORCHESTRATOR, localProjectKey, "sample");
+    TestUtils.associateProjectToQualityProfile(ORCHESTRATOR, localProjectKey, "cs", "ProfileForTest");
 
     String token = TestUtils.getNewToken(ORCHESTRATOR);
 
     Path projectDir = TestUtils.projectDir(basePath, "ProjectUnderTest");
-    ORCHESTRATOR.executeBuild(TestUtils.newScanner(ORCHESTRATOR, projectDir, token)
+    TestUtils.executeBuild(ORCHESTRATOR, TestUtils.newScanner(ORCHESTRATOR, projectDir, token)
       .addArgument("begin")
       .setProjectKey(localProjectKey)
       .setProjectName("sample")
@@ -155,47 +155,270 @@ class ScannerMSBuildTest {
     assertLineCountForProjectUnderTest(localProjectKey);
   }
 
+  static Stream<NetworkProfile> networkProfiles() {
+    return Stream.of(NetworkProfile.WAN, NetworkProfile.SLOW);
+  }
+
+  @ParameterizedTest
+  @MethodSource("networkProfiles")
+  void testSampleOverShapedNetwork(NetworkProfile profile) throws Exception {
+    // Nothing is asserted on the timings, which only show in the logs: it is run on demand, to look at them
+    assumeTrue(Boolean.getBoolean("network.shaping"), "Set -Dnetwork.shaping=true to run the analysis over shaped networks");
+    String localProjectKey = PROJECT_KEY + ".2." + profile;
+    TestUtils.restoreProfile(ORCHESTRATOR, FileLocation.of("projects/ProjectUnderTest/TestQualityProfile.xml"));
+    TestUtils.provisionProject(ORCHESTRATOR, localProjectKey, "sample");
+    TestUtils.associateProjectToQualityProfile(ORCHESTRATOR, localProjectKey, "cs", "ProfileForTest");
+
+    String token = TestUtils.getNewToken(ORCHESTRATOR);
+
+    Path projectDir = TestUtils.projectDir(basePath, "ProjectUnderTest");
+    try (var proxy = new ShapingProxy(ORCHESTRATOR.getServer().getUrl(), profile)) {
+      long start = System.currentTimeMillis();
+      TestUtils.executeBuild(ORCHESTRATOR, TestUtils.newScanner(ORCHESTRATOR, projectDir, token)
+        .addArgument("begin")
+        .setProjectKey(localProjectKey)
+        .setProjectName("sample")
+        .setProperty("sonar.host.url", proxy.url())
+        .setProperty("sonar.projectBaseDir", Paths.get(projectDir.toAbsolutePath().toString(), "ProjectUnderTest").toString())
+        .setProjectVersion("1.0"));
+      LOG.info(proxy.report("Begin step", System.currentTimeMillis() - start));
+
+      TestUtils.buildMSBuild(ORCHESTRATOR, projectDir);
+
+      // The end step reads the server URL from the configuration written by the begin step
+      start = System.currentTimeMillis();
+      BuildResult result = TestUtils.executeEndStepAndDumpResults(ORCHESTRATOR, projectDir, localProjectKey, token);
+      LOG.info(proxy.report("End step", System.currentTimeMillis() - start));
+      assertTrue(result.isSuccess());
+    }
+    List<Issue> issues = TestUtils.issuesForComponent(ORCHESTRATOR, localProjectKey);
+    // 1 * csharpsquid:S1134 (line 34)
+    assertThat(issues).hasSize(1);
+    assertLineCountForProjectUnderTest(localProjectKey);
+  }
+
   @Test
   void testSampleWithProxyAuth() throws Exception {
-    startProxy(true);
-    String localProjectKey = PROJECT_KEY + ".3";
-    ORCHESTRATOR.getServer().restoreProfile(FileLocation.of("projects/ProjectUnderTest/TestQualityProfile.xml"));
-    ORCHESTRATOR.getServer().provisionProject(localProjectKey, "sample");
-    ORCHESTRATOR.getServer().associateProjectToQualityProfile(localProjectKey, "cs", "ProfileForTest");
+    try (var session = proxy.open(true)) {
+      String localProjectKey = PROJECT_KEY + ".3";
+      TestUtils.restoreProfile(ORCHESTRATOR, FileLocation.of("projects/ProjectUnderTest/TestQualityProfile.xml"));
+      TestUtils.provisionProject(ORCHESTRATOR, localProjectKey, "sample");
+      TestUtils.associateProjectToQualityProfile(ORCHESTRATOR, localProjectKey, "cs", "ProfileForTest");
+
+      Path projectDir = TestUtils.projectDir(basePath, "ProjectUnderTest");
+      String token = TestUtils.getNewToken(ORCHESTRATOR);
+      TestUtils.executeBuild(ORCHESTRATOR, TestUtils.newScanner(ORCHESTRATOR, projectDir, token)
+        .addArgument("begin")
+        .setProjectKey(localProjectKey)
+        .setProjectName("sample")
+        .setProperty("sonar.projectBaseDir", Paths.get(projectDir.toAbsolutePath().toString(), "ProjectUnderTest").toString())
+        .setProjectVersion("1.0"));
+
+      TestUtils.buildMSBuild(ORCHESTRATOR, projectDir);
+
+      BuildResult result = TestUtils.executeBuildQuietly(ORCHESTRATOR, TestUtils.newScanner(ORCHESTRATOR, projectDir, token)
+        .addArgument("end")
+        .setEnvironmentVariable("SONAR_SCANNER_OPTS", "-Dhttp.nonProxyHosts= -Dhttp.proxyHost=localhost -Dhttp.proxyPort=" + session.port()));
 
-    Path projectDir = TestUtils.projectDir(basePath, "ProjectUnderTest");
-    String token = TestUtils.getNewToken(ORCHESTRATOR);
-    ORCHESTRATOR.executeBuild(TestUtils.newScanner(ORCHESTRATOR, projectDir, token)
-      .addArgument("begin")
-      .setProjectKey(localProjectKey)
-      .setProjectName("sample")
-      .setProperty("sonar.projectBaseDir", Paths.get(projectDir.toAbsolutePath().toString(), "ProjectUnderTest").toString())
-      .setProjectVersion("1.0"));
+      assertThat(result.getLastStatus()).isNotZero();
+      assertThat(result.getLogs()).contains("407");
+      assertThat(session.traffic().exchanges()).extracting(ProxyTraffic.Exchange::status).containsOnly(407);
+      session.traffic().clear();
 
-    TestUtils.buildMSBuild(ORCHESTRATOR, projectDir);
+      TestUtils.executeBuild(ORCHESTRATOR, TestUtils.newScanner(ORCHESTRATOR, projectDir, token)
+        .addArgument("end")
+        .setEnvironmentVariable("SONAR_SCANNER_OPTS",
+          "-Dhttp.nonProxyHosts= -Dhttp.proxyHost=localhost -Dhttp.proxyPort=" + session.port() + " -Dhttp.proxyUser=" + PROXY_USER + " -Dhttp.proxyPassword=" + PROXY_PASSWORD));
 
-    BuildResult result = ORCHESTRATOR.executeBuildQuietly(TestUtils.newScanner(ORCHESTRATOR, projectDir, token)
-      .addArgument("end")
-      .setEnvironmentVariable("SONAR_SCANNER_OPTS", "-Dhttp.nonProxyHosts= -Dhttp.proxyHost=localhost -Dhttp.proxyPort=" + httpProxyPort));
+      TestUtils.dumpComponentList(ORCHESTRATOR, localProjectKey);
+      TestUtils.dumpAllIssues(ORCHESTRATOR);
 
-    assertThat(result.getLastStatus()).isNotZero();
-    assertThat(result.getLogs()).contains("407");
-    assertThat(seenByProxy).isEmpty();
+      List<Issue> issues = TestUtils.allIssues(ORCHESTRATOR);
+      // 1 * csharpsquid:S1134 (line 34)
+      assertThat(issues).hasSize(1);
+      assertLineCountForProjectUnderTest(localProjectKey);
 
-    ORCHESTRATOR.executeBuild(TestUtils.newScanner(ORCHESTRATOR, projectDir, token)
-      .addArgument("end")
-      .setEnvironmentVariable("SONAR_SCANNER_OPTS",
-        "-Dhttp.nonProxyHosts= -Dhttp.proxyHost=localhost -Dhttp.proxyPort=" + httpProxyPort + " -Dhttp.proxyUser=" + PROXY_USER + " -Dhttp.proxyPassword=" + PROXY_PASSWORD));
+      LOG.info("Proxy traffic of the end step: {}", session.traffic().summary());
+      assertThat(session.traffic().uris()).isNotEmpty();
+      assertThat(session.traffic().bytesIn()).as("The analysis report goes through the proxy").isPositive();
+      assertThat(session.traffic().connections()).as("Connections to the proxy are reused").isLessThan(session.traffic().exchanges().size());
+    }
+  }
 
-    TestUtils.dumpComponentList(ORCHESTRATOR, localProjectKey);
-    TestUtils.dumpAllIssues(ORCHESTRATOR);
+  @Test
+  void testProxyAuthUnderLoad() throws Exception {
+    var concurrency = Integer.getInteger("proxy.load.concurrency", 0);
+    assumeTrue(concurrency > 1, "Set -Dproxy.load.concurrency=<number of end steps> to run the proxy load test");
+    TestUtils.restoreProfile(ORCHESTRATOR, FileLocation.of("projects/ProjectUnderTest/TestQualityProfile.xml"));
+    String token = TestUtils.getNewToken(ORCHESTRATOR);
+    var projectDirs = new ArrayList<Path>();
+    for (int i = 0; i < concurrency; i++) {
+      String localProjectKey = PROJECT_KEY + ".proxyLoad." + i;
+      TestUtils.provisionProject(ORCHESTRATOR, localProjectKey, "sample");
+      TestUtils.associateProjectToQualityProfile(ORCHESTRATOR, localProjectKey, "cs", "ProfileForTest");
+      Path projectDir = TestUtils.projectDir(basePath.resolve("load-" + i), "ProjectUnderTest");
+      TestUtils.executeBuild(ORCHESTRATOR, TestUtils.newScanner(ORCHESTRATOR, projectDir, token)
+        .addArgument("begin")
+        .setProjectKey(localProjectKey)
+        .setProjectName("sample")
+        .setProperty("sonar.projectBaseDir", Paths.get(projectDir.toAbsolutePath().toString(), "ProjectUnderTest").toString())
+        .setProjectVersion("1.0"));
+      TestUtils.buildMSBuild(ORCHESTRATOR, projectDir);
+      projectDirs.add(projectDir);
+    }
 
-    List<Issue> issues = TestUtils.allIssues(ORCHESTRATOR);
-    // 1 * csharpsquid:S1134 (line 34)
-    assertThat(issues).hasSize(1);
-    assertLineCountForProjectUnderTest(localProjectKey);
+    var authenticator = new ProxyAuthenticator(PROXY_CREDENTIALS_CACHE_SIZE, PROXY_CREDENTIALS_TTL);
+    try (var loadProxy = new ProxyFixture(PROXY_USER, PROXY_PASSWORD, authenticator); var session = loadProxy.open(true)) {
+      var executor = Executors.newFixedThreadPool(concurrency);
+      try {
+        long start = System.nanoTime();
+        var ends = new ArrayList<Future<BuildResult>>();
+        for (var projectDir : projectDirs) {
+          ends.add(executor.submit(() -> TestUtils.executeBuildQuietly(ORCHESTRATOR, TestUtils.newScanner(ORCHESTRATOR, projectDir, token)
+            .addArgument("end")
+            .setEnvironmentVariable("SONAR_SCANNER_OPTS",
+              "-Dhttp.nonProxyHosts= -Dhttp.proxyHost=localhost -Dhttp.proxyPort=" + session.port() + " -Dhttp.proxyUser=" + PROXY_USER + " -Dhttp.proxyPassword=" + PROXY_PASSWORD))));
+        }
+        var results = new ArrayList<BuildResult>();
+        for (var end : ends) {
+          results.add(end.get());
+        }
+        long elapsedMs = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        var exchanges = session.traffic().exchanges();
+        long rejected = exchanges.stream().filter(x -> x.status() == 407).count();
+        LOG.info("{} concurrent end steps through the authenticated proxy: {} requests in {} ms ({} requests/s), {}% answered 407, "
+          + "{} us of authentication per request, {} of {} validations from the cache",
+          concurrency, exchanges.size(), elapsedMs, exchanges.size() * 1000 / elapsedMs, exchanges.isEmpty() ? 0 : rejected * 100 / exchanges.size(),
+          authenticator.validations() == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(authenticator.validationNanos()) / authenticator.validations(),
+          authenticator.cacheHits(), authenticator.validations());
+        assertThat(results).allMatch(BuildResult::isSuccess);
+      } finally {
+        executor.shutdownNow();
+      }
+    }
+  }
+
+  @Test
+  void testEndStepScaling() throws IOException {
+    var sizes = System.getProperty("end.scaling.sizes");
+    assumeTrue(sizes != null, "Set -Dend.scaling.sizes=<project counts, comma separated, e.g. 10,100,300,1000> to run the end step scaling benchmark");
+    // The scanner is run by ScannerCommand, with sonar.token
+    assumeTrue(ORCHESTRATOR.getServer().version().isGreaterThanOrEquals(10, 0));
+    var projectCounts = Arrays.stream(sizes.split(",")).map(x -> Integer.parseInt(x.trim())).sorted().collect(Collectors.toList());
+    // a + c * n^k has three parameters, the fourth size is the one that tests the fit
+    assertThat(projectCounts).as("A scaling curve needs at least four sizes").hasSizeGreaterThanOrEqualTo(4);
+
+    var points = new ArrayList<EndStepScaling>();
+    for (var projectCount : projectCounts) {
+      var point = measureEndStep(SyntheticSolution.of(projectCount).withSharedFiles(projectCount / 10));
+      LOG.info("End step of {} projects: {} ms, peak RSS {} MB, sonar-project.properties {} KB", projectCount, point.endMillis(),
+        point.peakBytes() / (1024 * 1024), point.propertiesBytes() / 1024);
+      points.add(point);
+    }
+
+    var endExponent = scalingExponent(points, EndStepScaling::endMillis);
+    LOG.info("End step scaling with the project count: time n^{}, peak RSS n^{}, sonar-project.properties n^{}",
+      String.format("%.2f", endExponent),
+      String.format("%.2f", scalingExponent(points, EndStepScaling::peakBytes)),
+      String.format("%.2f", scalingExponent(points, EndStepScaling::propertiesBytes)));
+    assertThat(endExponent).as("Exponent of the end step time with the project count").isLessThanOrEqualTo(END_SCALING_MAX_EXPONENT);
+  }
+
+  private EndStepScaling measureEndStep(SyntheticSolution solution) throws IOException {
+    var projectDir = TestUtils.projectDir(basePath, solution);
+    var projectKey = solution.name();
+    var token = TestUtils.getNewToken(ORCHESTRATOR);
+    TestUtils.provisionProject(ORCHESTRATOR, projectKey, projectKey);
+    // Both steps run the scanner of the build directory
+    var begin = ScannerCommand.execute(ScannerCommand.begin(ScannerClassifier.NET, projectDir, ORCHESTRATOR.getServer().getUrl(), token, projectKey,
+      "sonar.projectBaseDir=" + projectDir.toAbsolutePath(),
+      "sonar.sourceEncoding=UTF-8"), END_SCALING_TIMEOUT);
+    assertThat(begin.isSuccess()).isTrue();
+    assertThat(TestUtils.runDotnetCommand(projectDir, "build", SyntheticSolution.SOLUTION_FILE).isSuccess()).isTrue();
+
+    // Only the process tree of this end step is sampled, the test classes running in parallel start their own scanners
+    var end = ScannerCommand.measure(ScannerCommand.end(ScannerClassifier.NET, projectDir, token), END_SCALING_TIMEOUT);
+    assertThat(end.isSuccess()).isTrue();
+    var usage = end.getResourceUsages().get(0);
+    // The next size must not be measured while the Compute Engine processes this one
+    PhaseTimer.run(PhaseTimer.Phase.CE_WAIT, () -> new SynchronousAnalyzer(ORCHESTRATOR.getServer()).waitForDone());
+    var propertiesBytes = Files.size(projectDir.resolve(".sonarqube").resolve("out").resolve("sonar-project.properties"));
+    return new EndStepScaling(solution.projectCount(), usage.wallTime().toMillis(), usage.peakRssBytes(), propertiesBytes);
+  }
+
+  /**
+   * @return the exponent k of the curve {@code a + c * n^k} that fits the points best in the least squares sense, where n is the
+   * project count and a the fixed cost of the step, e.g. its startup. 0 when the value does not grow with n.
+   */
+  private static double scalingExponent(List<EndStepScaling> points, ToLongFunction<EndStepScaling> value) {
+    // Relative to the largest count, so that n^k stays in [0, 1]
+    double maxCount = points.get(points.size() - 1).projectCount();
+    double[] counts = points.stream().mapToDouble(x -> x.projectCount() / maxCount).toArray();
+    double[] values = points.stream().mapToDouble(value::applyAsLong).toArray();
+    // The sum of squares is not convex in k: the best exponent of a grid is refined by a golden-section search around it
+    double best = 0;
+    double bestError = Double.MAX_VALUE;
+    for (double k = 0; k <= SCALING_FIT_MAX_EXPONENT; k += SCALING_FIT_STEP) {
+      double error = scalingFitError(counts, values, k);
+      if (error < bestError) {
+        best = k;
+        bestError = error;
+      }
+    }
+    if (best == 0) {
+      return 0;
+    }
+    double ratio = (Math.sqrt(5) - 1) / 2;
+    double low = best - SCALING_FIT_STEP;
+    double high = Math.min(SCALING_FIT_MAX_EXPONENT, best + SCALING_FIT_STEP);
+    double k1 = high - ratio * (high - low);
+    double k2 = low + ratio * (high - low);
+    double error1 = scalingFitError(counts, values, k1);
+    double error2 = scalingFitError(counts, values, k2);
+    while (high - low > 1e-4) {
+      if (error1 < error2) {
+        high = k2;
+        k2 = k1;
+        error2 = error1;
+        k1 = high - ratio * (high - low);
+        error1 = scalingFitError(counts, values, k1);
+      } else {
+        low = k1;
+        k1 = k2;
+        error1 = error2;
+        k2 = low + ratio * (high - low);
+        error2 = scalingFitError(counts, values, k2);
+      }
+    }
+    return (low + high) / 2;
+  }
+
+  /**
+   * @return the sum of the squared residuals of the curve {@code a + c * n^k} that fits the points best for the given k: a and c
+   * are then a linear least squares fit, with c not negative.
+   */
+  private static double scalingFitError(double[] counts, double[] values, double k) {
+    double[] powers = Arrays.stream(counts).map(x -> Math.pow(x, k)).toArray();
+    double meanPower = Arrays.stream(powers).average().orElseThrow();
+    double meanValue = Arrays.stream(values).average().orElseThrow();
+    double covariance = 0;
+    double variance = 0;
+    for (int i = 0; i < powers.length; i++) {
+      covariance += (powers[i] - meanPower) * (values[i] - meanValue);
+      variance += (powers[i] - meanPower) * (powers[i] - meanPower);
+    }
+    double c = variance == 0 ? 0 : Math.max(0, covariance / variance);
+    double a = meanValue - c * meanPower;
+    double error = 0;
+    for (int i = 0; i < powers.length; i++) {
+      double residual = values[i] - a - c * powers[i];
+      error += residual * residual;
+    }
+    return error;
+  }
 
-    assertThat(seenByProxy).isNotEmpty();
+  private record EndStepScaling(int projectCount, long endMillis, long peakBytes, long propertiesBytes) {
   }
 
   @Test
@@ -203,7 +426,7 @@ class ScannerMSBuildTest {
     assumeTrue(TestUtils.getScannerVersion(ORCHESTRATOR) == null);
 
     Path projectDir = TestUtils.projectDir(basePath, "ProjectUnderTest");
-    BuildResult result = ORCHESTRATOR.executeBuild(ScannerForMSBuild.create(projectDir.toFile()).addArgument("/?"));
+    BuildResult result = TestUtils.executeBuild(ORCHESTRATOR, ScannerForMSBuild.create(projectDir.toFile()).addArgument("/?"));
 
     assertThat(result.getLogs()).contains("Usage");
     assertTrue(result.isSuccess());
@@ -214,15 +437,15 @@ class ScannerMSBuildTest {
     String localProjectKey = PROJECT_KEY + ".4";
     assumeTrue(ORCHESTRATOR.getServer().version().isGreaterThanOrEquals(6, 1));
 
-    ORCHESTRATOR.getServer().restoreProfile(FileLocation.of("projects/ProjectUnderTest/TestQualityProfile.xml"));
-    ORCHESTRATOR.getServer().provisionProject(localProjectKey, "sample");
-    ORCHESTRATOR.getServer().associateProjectToQualityProfile(localProjectKey, "cs", "ProfileForTest");
+    TestUtils.restoreProfile(ORCHESTRATOR, FileLocation.of("projects/ProjectUnderTest/TestQualityProfile.xml"));
+    TestUtils.provisionProject(ORCHESTRATOR, localProjectKey, "sample");
+    TestUtils.associateProjectToQualityProfile(ORCHESTRATOR, localProjectKey, "cs", "ProfileForTest");
 
     Path projectDir = TestUtils.projectDir(basePath, "ProjectUnderTest");
 
     String token = TestUtils.getNewToken(ORCHESTRATOR);
 
-    ORCHESTRATOR.executeBuild(TestUtils.newScanner(ORCHESTRATOR, projectDir, token)
+    TestUtils.executeBuild(ORCHESTRATOR, TestUtils.newScanner(ORCHESTRATOR, projectDir, token)
       .addArgument("begin")
       .setProperty("sonar.projectBaseDir", Paths.get(projectDir.toAbsolutePath().toString(), "ProjectUnderTest").toString())
       .setProjectKey(localProjectKey));
@@ -280,12 +503,12 @@ class ScannerMSBuildTest {
     String projectKeyName = "ExcludedTest_MalformedJson_FromAzureDevOps";
     String token = TestUtils.getNewToken(ORCHESTRATOR);
     Path projectDir = TestUtils.projectDir(basePath, "ExcludedTest");
-    ORCHESTRATOR.getServer().restoreProfile(FileLocation.of("projects/ProjectUnderTest/TestQualityProfile.xml"));
-    ORCHESTRATOR.getServer().provisionProject(projectKeyName, projectKeyName);
-    ORCHESTRATOR.getServer().associateProjectToQualityProfile(projectKeyName, "cs", "ProfileForTest");
+    TestUtils.restoreProfile(ORCHESTRATOR, FileLocation.of("projects/ProjectUnderTest/TestQualityProfile.xml"));
+    TestUtils.provisionProject(ORCHESTRATOR, projectKeyName, projectKeyName);
+    TestUtils.associateProjectToQualityProfile(ORCHESTRATOR, projectKeyName, "cs", "ProfileForTest");
 
     ScannerForMSBuild beginStep = TestUtils.newScannerBegin(ORCHESTRATOR, projectKeyName, projectDir, token, ScannerClassifier.NET_FRAMEWORK);
-    ORCHESTRATOR.executeBuild(beginStep);
+    TestUtils.executeBuild(ORCHESTRATOR, beginStep);
 
     EnvironmentVariable sonarQubeScannerParams = new EnvironmentVariable("SONARQUBE_SCANNER_PARAMS", "{\"sonar.dotnet.excludeTestProjects\" }");
     BuildResult msBuildResult = TestUtils.runMSBuild(ORCHESTRATOR, projectDir, Collections.singletonList(sonarQubeScannerParams), 60 * 1000, "/t:Restore,Rebuild");
@@ -314,7 +537,7 @@ class ScannerMSBuildTest {
       .setProperty("sonar.verbose", "true")
       .setProjectVersion("1.0");
     beginStep.setEnvironmentVariable(sonarQubeScannerParams.getName(), sonarQubeScannerParams.getValue());
-    var beginResult = ORCHESTRATOR.executeBuild(beginStep);
+    var beginResult = TestUtils.executeBuild(ORCHESTRATOR, beginStep);
     assertThat(beginResult.isSuccess()).isTrue();
 
     TestUtils.buildMSBuild(ORCHESTRATOR, projectDir);
@@ -348,17 +571,17 @@ class ScannerMSBuildTest {
     assumeTrue(ORCHESTRATOR.getServer().version().isGreaterThanOrEquals(10, 8));
 
     String localProjectKey = PROJECT_KEY + ".12";
-    ORCHESTRATOR.getServer().restoreProfile(FileLocation.of("projects/ConsoleMultiLanguage/TestQualityProfileCSharp.xml"));
-    ORCHESTRATOR.getServer().restoreProfile(FileLocation.of("projects/ConsoleMultiLanguage/TestQualityProfileVBNet.xml"));
-    ORCHESTRATOR.getServer().provisionProject(localProjectKey, "multilang");
-    ORCHESTRATOR.getServer().associateProjectToQualityProfile(localProjectKey, "cs", "ProfileForTestCSharp");
-    ORCHESTRATOR.getServer().associateProjectToQualityProfile(localProjectKey, "vbnet", "ProfileForTestVBNet");
+    TestUtils.restoreProfile(ORCHESTRATOR, FileLocation.of("projects/ConsoleMultiLanguage/TestQualityProfileCSharp.xml"));
+    TestUtils.restoreProfile(ORCHESTRATOR, FileLocation.of("projects/ConsoleMultiLanguage/TestQualityProfileVBNet.xml"));
+    TestUtils.provisionProject(ORCHESTRATOR, localProjectKey, "multilang");
+    TestUtils.associateProjectToQualityProfile(ORCHESTRATOR, localProjectKey, "cs", "ProfileForTestCSharp");
+    TestUtils.associateProjectToQualityProfile(ORCHESTRATOR, localProjectKey, "vbnet", "ProfileForTestVBNet");
 
     String token = TestUtils.getNewToken(ORCHESTRATOR);
 
     Path projectDir = TestUtils.projectDir(basePath, "ConsoleMultiLanguage");
 
-    ORCHESTRATOR.executeBuild(TestUtils.newScannerBegin(ORCHESTRATOR, localProjectKey, projectDir, token, ScannerClassifier.NET_FRAMEWORK));
+    TestUtils.executeBuild(ORCHESTRATOR, TestUtils.newScannerBegin(ORCHESTRATOR, localProjectKey, projectDir, token, ScannerClassifier.NET_FRAMEWORK));
     TestUtils.buildMSBuild(ORCHESTRATOR, projectDir);
     BuildResult result = TestUtils.executeEndStepAndDumpResults(ORCHESTRATOR, projectDir, localProjectKey, token);
 
@@ -382,14 +605,14 @@ class ScannerMSBuildTest {
   @Test
   void checkExternalIssuesVB() throws Exception {
     String localProjectKey = PROJECT_KEY + ".6";
-    ORCHESTRATOR.getServer().restoreProfile(FileLocation.of("projects/ExternalIssues.VB/TestQualityProfileExternalIssuesVB.xml"));
-    ORCHESTRATOR.getServer().provisionProject(localProjectKey, "sample");
-    ORCHESTRATOR.getServer().associateProjectToQualityProfile(localProjectKey, "vbnet", "ProfileForTestExternalIssuesVB");
+    TestUtils.restoreProfile(ORCHESTRATOR, FileLocation.of("projects/ExternalIssues.VB/TestQualityProfileExternalIssuesVB.xml"));
+    TestUtils.provisionProject(ORCHESTRATOR, localProjectKey, "sample");
+    TestUtils.associateProjectToQualityProfile(ORCHESTRATOR, localProjectKey, "vbnet", "ProfileForTestExternalIssuesVB");
 
     Path projectDir = TestUtils.projectDir(basePath, "ExternalIssues.VB");
     String token = TestUtils.getNewToken(ORCHESTRATOR);
 
-    ORCHESTRATOR.executeBuild(TestUtils.newScannerBegin(ORCHESTRATOR, localProjectKey, projectDir, token, ScannerClassifier.NET_FRAMEWORK));
+    TestUtils.executeBuild(ORCHESTRATOR, TestUtils.newScannerBegin(ORCHESTRATOR, localProjectKey, projectDir, token, ScannerClassifier.NET_FRAMEWORK));
     TestUtils.runMSBuild(ORCHESTRATOR, projectDir, "/t:Rebuild");
     BuildResult result = TestUtils.executeEndStepAndDumpResults(ORCHESTRATOR, projectDir, localProjectKey, token);
 
@@ -420,13 +643,13 @@ class ScannerMSBuildTest {
   @Test
   void testParameters() throws Exception {
     String localProjectKey = PROJECT_KEY + ".7";
-    ORCHESTRATOR.getServer().restoreProfile(FileLocation.of("projects/ProjectUnderTest/TestQualityProfileParameters.xml"));
-    ORCHESTRATOR.getServer().provisionProject(localProjectKey, "parameters");
-    ORCHESTRATOR.getServer().associateProjectToQualityProfile(localProjectKey, "cs", "ProfileForTestParameters");
+    TestUtils.restoreProfile(ORCHESTRATOR, FileLocation.of("projects/ProjectUnderTest/TestQualityProfileParameters.xml"));
+    TestUtils.provisionProject(ORCHESTRATOR, localProjectKey, "parameters");
+    TestUtils.associateProjectToQualityProfile(ORCHESTRATOR, localProjectKey, "cs", "ProfileForTestParameters");
 
     Path projectDir = TestUtils.projectDir(basePath, "ProjectUnderTest");
     String token = TestUtils.getNewToken(ORCHESTRATOR);
-    ORCHESTRATOR.executeBuild(TestUtils.newScanner(ORCHESTRATOR, projectDir, token)
+    TestUtils.executeBuild(ORCHESTRATOR, TestUtils.newScanner(ORCHESTRATOR, projectDir, token)
       .addArgument("begin")
       .setProjectKey(localProjectKey)
       .setProjectName("parameters")
@@ -448,13 +671,13 @@ class ScannerMSBuildTest {
   @Test
   void testVerbose() throws IOException {
     String localProjectKey = PROJECT_KEY + ".10";
-    ORCHESTRATOR.getServer().restoreProfile(FileLocation.of("projects/ProjectUnderTest/TestQualityProfile.xml"));
-    ORCHESTRATOR.getServer().provisionProject(localProjectKey, "verbose");
-    ORCHESTRATOR.getServer().associateProjectToQualityProfile(localProjectKey, "cs", "ProfileForTest");
+    TestUtils.restoreProfile(ORCHESTRATOR, FileLocation.of("projects/ProjectUnderTest/TestQualityProfile.xml"));
+    TestUtils.provisionProject(ORCHESTRATOR, localProjectKey, "verbose");
+    TestUtils.associateProjectToQualityProfile(ORCHESTRATOR, localProjectKey, "cs", "ProfileForTest");
 
     Path projectDir = TestUtils.projectDir(basePath, "ProjectUnderTest");
     String token = TestUtils.getNewToken(ORCHESTRATOR);
-    BuildResult result = ORCHESTRATOR.executeBuild(TestUtils.newScanner(ORCHESTRATOR, projectDir, token)
+    BuildResult result = TestUtils.executeBuild(ORCHESTRATOR, TestUtils.newScanner(ORCHESTRATOR, projectDir, token)
       .addArgument("begin")
       .setProjectKey(localProjectKey)
       .setProjectName("verbose")
@@ -469,7 +692,7 @@ class ScannerMSBuildTest {
   @Test
   void testHelp() throws IOException {
     Path projectDir = TestUtils.projectDir(basePath, "ProjectUnderTest");
-    BuildResult result = ORCHESTRATOR.executeBuild(ScannerForMSBuild.create(projectDir.toFile()).addArgument("/?"));
+    BuildResult result = TestUtils.executeBuild(ORCHESTRATOR, ScannerForMSBuild.create(projectDir.toFile()).addArgument("/?"));
 
     assertThat(result.getLogs()).contains("Usage");
     assertThat(result.getLogs()).contains("SonarScanner.MSBuild.exe");
@@ -478,16 +701,16 @@ class ScannerMSBuildTest {
   @Test
   void testAllProjectsExcluded() throws Exception {
     String localProjectKey = PROJECT_KEY + ".9";
-    ORCHESTRATOR.getServer().restoreProfile(FileLocation.of("projects/ProjectUnderTest/TestQualityProfile.xml"));
-    ORCHESTRATOR.getServer().provisionProject(localProjectKey, "sample");
-    ORCHESTRATOR.getServer().associateProjectToQualityProfile(localProjectKey, "cs", "ProfileForTest");
+    TestUtils.restoreProfile(ORCHESTRATOR, FileLocation.of("projects/ProjectUnderTest/TestQualityProfile.xml"));
+    TestUtils.provisionProject(ORCHESTRATOR, localProjectKey, "sample");
+    TestUtils.associateProjectToQualityProfile(ORCHESTRATOR, localProjectKey, "cs", "ProfileForTest");
 
     Path projectDir = TestUtils.projectDir(basePath, "ProjectUnderTest");
     String token = TestUtils.getNewToken(ORCHESTRATOR);
 
-    ORCHESTRATOR.executeBuild(TestUtils.newScannerBegin(ORCHESTRATOR, localProjectKey, projectDir, token, ScannerClassifier.NET_FRAMEWORK));
+    TestUtils.executeBuild(ORCHESTRATOR, TestUtils.newScannerBegin(ORCHESTRATOR, localProjectKey, projectDir, token, ScannerClassifier.NET_FRAMEWORK));
     TestUtils.runMSBuild(ORCHESTRATOR, projectDir, "/t:Restore,Rebuild", "/p:ExcludeProjectsFromAnalysis=true");
-    BuildResult result = ORCHESTRATOR.executeBuildQuietly(TestUtils.newScanner(ORCHESTRATOR, projectDir, token)
+    BuildResult result = TestUtils.executeBuildQuietly(ORCHESTRATOR, TestUtils.newScanner(ORCHESTRATOR, projectDir, token)
       .addArgument("end"));
 
     assertThat(result.isSuccess()).isFalse();
@@ -498,14 +721,14 @@ class ScannerMSBuildTest {
   @Test
   void testNoActiveRule() throws IOException {
     String localProjectKey = PROJECT_KEY + ".8";
-    ORCHESTRATOR.getServer().restoreProfile(FileLocation.of("projects/ProjectUnderTest/TestEmptyQualityProfile.xml"));
-    ORCHESTRATOR.getServer().provisionProject(localProjectKey, "empty");
-    ORCHESTRATOR.getServer().associateProjectToQualityProfile(localProjectKey, "cs", "EmptyProfileForTest");
+    TestUtils.restoreProfile(ORCHESTRATOR, FileLocation.of("projects/ProjectUnderTest/TestEmptyQualityProfile.xml"));
+    TestUtils.provisionProject(ORCHESTRATOR, localProjectKey, "empty");
+    TestUtils.associateProjectToQualityProfile(ORCHESTRATOR, localProjectKey, "cs", "EmptyProfileForTest");
 
     Path projectDir = TestUtils.projectDir(basePath, "ProjectUnderTest");
     String token = TestUtils.getNewToken(ORCHESTRATOR);
 
-    ORCHESTRATOR.executeBuild(TestUtils.newScannerBegin(ORCHESTRATOR, localProjectKey, projectDir, token, ScannerClassifier.NET_FRAMEWORK));
+    TestUtils.executeBuild(ORCHESTRATOR, TestUtils.newScannerBegin(ORCHESTRATOR, localProjectKey, projectDir, token, ScannerClassifier.NET_FRAMEWORK));
     TestUtils.buildMSBuild(ORCHESTRATOR, projectDir);
     BuildResult result = TestUtils.executeEndStepAndDumpResults(ORCHESTRATOR, projectDir, localProjectKey, token);
 
@@ -518,14 +741,14 @@ class ScannerMSBuildTest {
   @Test
   void excludeAssemblyAttribute() throws Exception {
     String localProjectKey = PROJECT_KEY + ".5";
-    ORCHESTRATOR.getServer().restoreProfile(FileLocation.of("projects/ProjectUnderTest/TestQualityProfile.xml"));
-    ORCHESTRATOR.getServer().provisionProject(localProjectKey, "sample");
-    ORCHESTRATOR.getServer().associateProjectToQualityProfile(localProjectKey, "cs", "ProfileForTest");
+    TestUtils.restoreProfile(ORCHESTRATOR, FileLocation.of("projects/ProjectUnderTest/TestQualityProfile.xml"));
+    TestUtils.provisionProject(ORCHESTRATOR, localProjectKey, "sample");
+    TestUtils.associateProjectToQualityProfile(ORCHESTRATOR, localProjectKey, "cs", "ProfileForTest");
 
     Path projectDir = TestUtils.projectDir(basePath, "AssemblyAttribute");
     String token = TestUtils.getNewToken(ORCHESTRATOR);
 
-    ORCHESTRATOR.executeBuild(TestUtils.newScannerBegin(ORCHESTRATOR, localProjectKey, projectDir, token, ScannerClassifier.NET_FRAMEWORK));
+    TestUtils.executeBuild(ORCHESTRATOR, TestUtils.newScannerBegin(ORCHESTRATOR, localProjectKey, projectDir, token, ScannerClassifier.NET_FRAMEWORK));
     TestUtils.buildMSBuild(ORCHESTRATOR, projectDir);
     BuildResult result = TestUtils.executeEndStepAndDumpResults(ORCHESTRATOR, projectDir, localProjectKey, token);
 
@@ -536,14 +759,14 @@ class ScannerMSBuildTest {
   @Test
   void checkExternalIssuesCS() throws Exception {
     String localProjectKey = PROJECT_KEY + ".ExternalIssuesCS";
-    ORCHESTRATOR.getServer().restoreProfile(FileLocation.of("projects/ExternalIssues.CS/TestQualityProfileExternalIssues.xml"));
-    ORCHESTRATOR.getServer().provisionProject(localProjectKey, "sample");
-    ORCHESTRATOR.getServer().associateProjectToQualityProfile(localProjectKey, "cs", "ProfileForTestExternalIssues");
+    TestUtils.restoreProfile(ORCHESTRATOR, FileLocation.of("projects/ExternalIssues.CS/TestQualityProfileExternalIssues.xml"));
+    TestUtils.provisionProject(ORCHESTRATOR, localProjectKey, "sample");
+    TestUtils.associateProjectToQualityProfile(ORCHESTRATOR, localProjectKey, "cs", "ProfileForTestExternalIssues");
 
     Path projectDir = TestUtils.projectDir(basePath, "ExternalIssues.CS");
     String token = TestUtils.getNewToken(ORCHESTRATOR);
 
-    ORCHESTRATOR.executeBuild(TestUtils.newScannerBegin(ORCHESTRATOR, localProjectKey, projectDir, token, ScannerClassifier.NET_FRAMEWORK));
+    TestUtils.executeBuild(ORCHESTRATOR, TestUtils.newScannerBegin(ORCHESTRATOR, localProjectKey, projectDir, token, ScannerClassifier.NET_FRAMEWORK));
     TestUtils.runMSBuild(ORCHESTRATOR, projectDir, "/t:Rebuild");
     BuildResult result = TestUtils.executeEndStepAndDumpResults(ORCHESTRATOR, projectDir, localProjectKey, token);
 
@@ -580,13 +803,12 @@ class ScannerMSBuildTest {
     assumeFalse(TestUtils.getMsBuildPath(ORCHESTRATOR).toString().contains("2017"));
 
     String localProjectKey = PROJECT_KEY + ".11";
-    ORCHESTRATOR.getServer().provisionProject(localProjectKey, "Xamarin");
+    TestUtils.provisionProject(ORCHESTRATOR, localProjectKey, "Xamarin");
 
     BuildResult result = runBeginBuildAndEndForStandardProject("XamarinApplication", "", true, true);
     assertTrue(result.isSuccess());
 
-    List<Issue> issues = TestUtils.allIssues(ORCHESTRATOR);
-    assertThat(filter(issues, SONAR_RULES_PREFIX))
+    assertThat(TestUtils.allIssues(ORCHESTRATOR, SONAR_RULES_PREFIX))
       .hasSize(8)
       .extracting(Issue::getRule, Issue::getComponent)
       .containsExactlyInAnyOrder(
@@ -631,7 +853,7 @@ class ScannerMSBuildTest {
     // For this test also the .vscode folder has been included in the project folder:
     // https://developercommunity.visualstudio.com/t/visual-studio-2022-freezes-when-opening-esproj-fil/1581344
     String localProjectKey = PROJECT_KEY + ".14";
-    ORCHESTRATOR.getServer().provisionProject(localProjectKey, "VueWithAspBackend");
+    TestUtils.provisionProject(ORCHESTRATOR, localProjectKey, "VueWithAspBackend");
 
     if (!TestUtils.getMsBuildPath(ORCHESTRATOR).toString().contains("2022")) {
       return; // This test is not supported on versions older than Visual Studio 22
@@ -640,7 +862,7 @@ class ScannerMSBuildTest {
     Path projectDir = TestUtils.projectDir(basePath, "VueWithAspBackend");
     String token = TestUtils.getNewToken(ORCHESTRATOR);
 
-    ORCHESTRATOR.executeBuild(
+    TestUtils.executeBuild(ORCHESTRATOR,
       TestUtils.newScannerBegin(ORCHESTRATOR, localProjectKey, projectDir, token, ScannerClassifier.NET_FRAMEWORK));
 
     TestUtils.runNuGet(ORCHESTRATOR, projectDir, true, "restore");
@@ -669,9 +891,9 @@ class ScannerMSBuildTest {
   @Test
   void testCustomRoslynAnalyzer() throws Exception {
     String folderName = "ProjectUnderTest";
-    ORCHESTRATOR.getServer().restoreProfile(FileLocation.of("projects/" + folderName + "/TestQualityProfileCustomRoslyn.xml"));
-    ORCHESTRATOR.getServer().provisionProject(folderName, folderName);
-    ORCHESTRATOR.getServer().associateProjectToQualityProfile(folderName, "cs", "ProfileForTestCustomRoslyn");
+    TestUtils.restoreProfile(ORCHESTRATOR, FileLocation.of("projects/" + folderName + "/TestQualityProfileCustomRoslyn.xml"));
+    TestUtils.provisionProject(ORCHESTRATOR, folderName, folderName);
+    TestUtils.associateProjectToQualityProfile(ORCHESTRATOR, folderName, "cs", "ProfileForTestCustomRoslyn");
 
     runBeginBuildAndEndForStandardProject(folderName, "", true, false);
 
@@ -845,16 +1067,15 @@ class ScannerMSBuildTest {
     ScannerForMSBuild scanner = TestUtils.newScannerBegin(ORCHESTRATOR, "IgnoreIssuesDoesNotRemoveSourceGenerator", projectDir, token, ScannerClassifier.NET_FRAMEWORK)
       .setProperty("sonar.cs.roslyn.ignoreIssues", "true");
 
-    ORCHESTRATOR.executeBuild(scanner);
+    TestUtils.executeBuild(ORCHESTRATOR, scanner);
 
     TestUtils.buildMSBuild(ORCHESTRATOR, projectDir);
 
     BuildResult result = TestUtils.executeEndStepAndDumpResults(ORCHESTRATOR, projectDir, "IgnoreIssuesDoesNotRemoveSourceGenerator", token);
 
     assertTrue(result.isSuccess());
-    List<Issue> issues = TestUtils.allIssues(ORCHESTRATOR);
-    assertThat(filter(issues, SONAR_RULES_PREFIX)).hasSize(2);
-    assertThat(filter(issues, ROSLYN_RULES_PREFIX)).isEmpty();
+    assertThat(TestUtils.allIssues(ORCHESTRATOR, SONAR_RULES_PREFIX)).hasSize(2);
+    assertThat(TestUtils.allIssues(ORCHESTRATOR, ROSLYN_RULES_PREFIX)).isEmpty();
   }
 
   @Test
@@ -921,7 +1142,7 @@ class ScannerMSBuildTest {
     Path projectDir = TestUtils.projectDir(basePath, "IncrementalPRAnalysis");
     File unexpectedUnchangedFiles = new File(projectDir.resolve(".sonarqube\\conf\\UnchangedFiles.txt").toString());
     String token = TestUtils.getNewToken(ORCHESTRATOR);
-    BuildResult result = ORCHESTRATOR.executeBuild(TestUtils.newScanner(ORCHESTRATOR, projectDir, token)
+    BuildResult result = TestUtils.executeBuild(ORCHESTRATOR, TestUtils.newScanner(ORCHESTRATOR, projectDir, token)
       .addArgument("begin")
       .setProjectKey(projectKey)
       .setProperty("sonar.projectBaseDir", projectDir.toAbsolutePath().toString())
@@ -945,11 +1166,11 @@ class ScannerMSBuildTest {
 
     String projectKey = "IncrementalPRAnalysis";
     String baseBranch = TestUtils.getDefaultBranchName(ORCHESTRATOR);
-    Path projectDir = TestUtils.projectDir(basePath, projectKey);
+    Path projectDir = TestUtils.projectDir(basePath, projectKey, "IncrementalPRAnalysis/WithChanges.cs");
 
     String token = TestUtils.getNewToken(ORCHESTRATOR);
 
-    ORCHESTRATOR.executeBuild(TestUtils.newScanner(ORCHESTRATOR, projectDir, token)
+    TestUtils.executeBuild(ORCHESTRATOR, TestUtils.newScanner(ORCHESTRATOR, projectDir, token)
       .addArgument("begin")
       .setProjectKey(projectKey)
       .setProjectName(projectKey)
@@ -961,14 +1182,14 @@ class ScannerMSBuildTest {
     BuildResult firstAnalysisResult = TestUtils.executeEndStepAndDumpResults(ORCHESTRATOR, projectDir, projectKey, token);
     assertTrue(firstAnalysisResult.isSuccess());
 
-    waitForCacheInitialization(projectKey, baseBranch);
+    waitForCacheInitialization(firstAnalysisResult, projectKey, baseBranch);
 
     File fileToBeChanged = projectDir.resolve("IncrementalPRAnalysis\\WithChanges.cs").toFile();
     BufferedWriter writer = new BufferedWriter(new FileWriter(fileToBeChanged, true));
     writer.append(' ');
     writer.close();
 
-    BuildResult result = ORCHESTRATOR.executeBuild(TestUtils.newScanner(ORCHESTRATOR, projectDir, token)
+    BuildResult result = TestUtils.executeBuild(ORCHESTRATOR, TestUtils.newScanner(ORCHESTRATOR, projectDir, token)
       .addArgument("begin")
       .setProjectKey(projectKey)
       .setProperty("sonar.projectBaseDir", projectDir.toAbsolutePath().toString())
@@ -1010,7 +1231,7 @@ class ScannerMSBuildTest {
       // This can be removed once we move to Cirrus CI.
       .setEnvironmentVariable("AGENT_BUILDDIRECTORY", "")
       .setEnvironmentVariable("BUILD_SOURCESDIRECTORY", "");
-    ORCHESTRATOR.executeBuild(scanner);
+    TestUtils.executeBuild(ORCHESTRATOR, scanner);
     // Build solution inside MultiLanguageSupport/src folder
     TestUtils.runMSBuild(
       ORCHESTRATOR,
@@ -1025,7 +1246,7 @@ class ScannerMSBuildTest {
       "src/MultiLanguageSupport.sln"
       );
     // End step in MultiLanguageSupport folder
-      var result = ORCHESTRATOR.executeBuild(TestUtils.newScanner(ORCHESTRATOR, projectDir, token)
+      var result = TestUtils.executeBuild(ORCHESTRATOR, TestUtils.newScanner(ORCHESTRATOR, projectDir, token)
         .addArgument("end")
         .setProjectDir(projectDir.toFile()) // this sets the working directory, not sonar.projectBaseDir
         // Overriding environment variables to fallback to projectBaseDir detection
@@ -1074,7 +1295,7 @@ class ScannerMSBuildTest {
       // This can be removed once we move to Cirrus CI.
       .setEnvironmentVariable("AGENT_BUILDDIRECTORY", "")
       .setEnvironmentVariable("BUILD_SOURCESDIRECTORY", "");
-    ORCHESTRATOR.executeBuild(scanner);
+    TestUtils.executeBuild(ORCHESTRATOR, scanner);
     // Build solution inside MultiLanguageSupport/src folder
     TestUtils.runMSBuild(
       ORCHESTRATOR,
@@ -1089,7 +1310,7 @@ class ScannerMSBuildTest {
       "MultiLanguageSupportReact.csproj"
     );
     // End step in MultiLanguageSupport folder
-    var result = ORCHESTRATOR.executeBuild(TestUtils.newScanner(ORCHESTRATOR, projectDir, token)
+    var result = TestUtils.executeBuild(ORCHESTRATOR, TestUtils.newScanner(ORCHESTRATOR, projectDir, token)
       .addArgument("end")
       .setProjectDir(projectDir.toFile()) // this sets the working directory, not sonar.projectBaseDir
       // Overriding environment variables to fallback to projectBaseDir detection
@@ -1131,7 +1352,7 @@ class ScannerMSBuildTest {
       // This can be removed once we move to Cirrus CI.
       .setEnvironmentVariable("AGENT_BUILDDIRECTORY", "")
       .setEnvironmentVariable("BUILD_SOURCESDIRECTORY", "");
-    ORCHESTRATOR.executeBuild(scanner);
+    TestUtils.executeBuild(ORCHESTRATOR, scanner);
     // Build solution inside MultiLanguageSupport/src folder
     TestUtils.runMSBuild(
       ORCHESTRATOR,
@@ -1146,7 +1367,7 @@ class ScannerMSBuildTest {
       "MultiLanguageSupportAngular.csproj"
     );
     // End step in MultiLanguageSupport folder
-    var result = ORCHESTRATOR.executeBuild(TestUtils.newScanner(ORCHESTRATOR, projectDir, token)
+    var result = TestUtils.executeBuild(ORCHESTRATOR, TestUtils.newScanner(ORCHESTRATOR, projectDir, token)
       .addArgument("end")
       .setProjectDir(projectDir.toFile()) // this sets the working directory, not sonar.projectBaseDir
       // Overriding environment variables to fallback to projectBaseDir detection
@@ -1198,7 +1419,7 @@ class ScannerMSBuildTest {
     Path projectDir = TestUtils.projectDir(basePath, projectName);
     String token = TestUtils.getNewToken(ORCHESTRATOR);
 
-    ORCHESTRATOR.executeBuild(TestUtils.newScannerBegin(ORCHESTRATOR, projectName, projectDir, token, ScannerClassifier.NET)
+    TestUtils.executeBuild(ORCHESTRATOR, TestUtils.newScannerBegin(ORCHESTRATOR, projectName, projectDir, token, ScannerClassifier.NET)
       .setScannerVersion(TestUtils.developmentScannerVersion())
       .setProperty("sonar.sources", "Program.cs") // user-defined sources and tests are not passed to the cli.
       .setProperty("sonar.tests", "Program.cs")); // If they were passed, it results to double-indexing error.
@@ -1213,18 +1434,45 @@ class ScannerMSBuildTest {
     }
   }
 
-  private void waitForCacheInitialization(String projectKey, String baseBranch) {
-    await()
-      .pollInterval(Duration.ofSeconds(1))
-      .atMost(Duration.ofSeconds(120))
-      .until(() -> {
-        try {
-          ORCHESTRATOR.getServer().newHttpCall("api/analysis_cache/get").setParam("project", projectKey).setParam("branch", baseBranch).setAuthenticationToken(ORCHESTRATOR.getDefaultAdminToken()).execute();
-          return true;
-        } catch (HttpException ex) {
-          return false; // if the `execute()` method is not successful it throws HttpException
+  private void waitForCacheInitialization(BuildResult analysisResult, String projectKey, String baseBranch) {
+    PhaseTimer.run(PhaseTimer.Phase.CE_WAIT, () -> awaitCacheInitialization(analysisResult, projectKey, baseBranch));
+  }
+
+  private void awaitCacheInitialization(BuildResult analysisResult, String projectKey, String baseBranch) {
+    long deadline = System.nanoTime() + CACHE_INITIALIZATION_TIMEOUT.toNanos();
+    // The cache is stored when the analysis report is processed, which is notified by the webhook
+    if (Tests.WEBHOOKS != null) {
+      try {
+        Tests.WEBHOOKS.task(TestUtils.extractCeTaskId(analysisResult)).get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        if (isCacheInitialized(projectKey, baseBranch)) {
+          return;
         }
-      });
+      } catch (ExecutionException | TimeoutException e) {
+        LOG.warn("No webhook received for the analysis of {}, polling the cache instead", projectKey);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException(e);
+      }
+    }
+    await()
+      .pollInterval(new IterativePollInterval(ScannerMSBuildTest::backoff, Duration.ofMillis(100)))
+      // Time for a last poll when the webhook took all of it
+      .atMost(Duration.ofNanos(Math.max(deadline - System.nanoTime(), TimeUnit.SECONDS.toNanos(1))))
+      .until(() -> isCacheInitialized(projectKey, baseBranch));
+  }
+
+  private static Duration backoff(Duration previous) {
+    var next = previous.multipliedBy(2);
+    return next.compareTo(MAX_POLL_INTERVAL) < 0 ? next : MAX_POLL_INTERVAL;
+  }
+
+  private static boolean isCacheInitialized(String projectKey, String baseBranch) {
+    return ORCHESTRATOR.getServer().newHttpCall("api/analysis_cache/get")
+      .setParam("project", projectKey)
+      .setParam("branch", baseBranch)
+      .setAuthenticationToken(ORCHESTRATOR.getDefaultAdminToken())
+      .executeUnsafely()
+      .isSuccessful();
   }
 
   private void validateCSharpSdk(String folderName) throws IOException {
@@ -1276,7 +1524,7 @@ class ScannerMSBuildTest {
     Path projectDir = TestUtils.projectDir(basePath, folderName);
 
     String token = TestUtils.getNewToken(ORCHESTRATOR);
-    ORCHESTRATOR.executeBuild(TestUtils.newScanner(ORCHESTRATOR, projectDir, token)
+    TestUtils.executeBuild(ORCHESTRATOR, TestUtils.newScanner(ORCHESTRATOR, projectDir, token)
       .addArgument("begin")
       .setProjectKey(folderName)
       .setProjectName(folderName)
@@ -1309,14 +1557,14 @@ class ScannerMSBuildTest {
       .setProperty("sonar.verbose", "true")
       .setProperty("sonar.sourceEncoding", "UTF-8");
 
-    ORCHESTRATOR.executeBuild(scanner);
+    TestUtils.executeBuild(ORCHESTRATOR, scanner);
 
     BuildResult buildResult = TestUtils.runDotnetCommand(projectDir, "build", folderName + ".sln", "--no-incremental");
 
     assertThat(buildResult.getLastStatus()).isZero();
 
     // use executeBuildQuietly to allow for failure
-    return ORCHESTRATOR.executeBuildQuietly(TestUtils.newScanner(ORCHESTRATOR, projectDir, ScannerClassifier.NET, token)
+    return TestUtils.executeBuildQuietly(ORCHESTRATOR, TestUtils.newScanner(ORCHESTRATOR, projectDir, ScannerClassifier.NET, token)
       .addArgument("end")
       // simulate it's not on Azure Pipelines (otherwise, it will take the projectBaseDir from there)
       .setEnvironmentVariable(AzureDevOpsUtils.ENV_SOURCES_DIRECTORY, "")
@@ -1343,14 +1591,7 @@ class ScannerMSBuildTest {
   private BuildResult runNetCoreBeginBuildAndEnd(Path projectDir, ScannerClassifier classifier) {
     String token = TestUtils.getNewToken(ORCHESTRATOR);
     String folderName = projectDir.getFileName().toString();
-    ScannerForMSBuild scanner = TestUtils.newScannerBegin(ORCHESTRATOR, folderName, projectDir, token, classifier)
-      .setUseDotNetCore(Boolean.TRUE)
-      .setScannerVersion(TestUtils.developmentScannerVersion())
-      // ensure that the Environment Variable parsing happens for .NET Core versions
-      .setEnvironmentVariable("SONARQUBE_SCANNER_PARAMS", "{}")
-      .setProperty("sonar.sourceEncoding", "UTF-8");
-
-    ORCHESTRATOR.executeBuild(scanner);
+    runNetCoreBegin(projectDir, folderName, token, classifier);
 
     // build project
     String[] arguments = new String[]{"build", folderName + ".sln"};
@@ -1367,6 +1608,17 @@ class ScannerMSBuildTest {
     return TestUtils.executeEndStepAndDumpResults(ORCHESTRATOR, projectDir, folderName, token, classifier, Collections.emptyList());
   }
 
+  private void runNetCoreBegin(Path projectDir, String projectKey, String token, ScannerClassifier classifier) {
+    ScannerForMSBuild scanner = TestUtils.newScannerBegin(ORCHESTRATOR, projectKey, projectDir, token, classifier)
+      .setUseDotNetCore(Boolean.TRUE)
+      .setScannerVersion(TestUtils.developmentScannerVersion())
+      // ensure that the Environment Variable parsing happens for .NET Core versions
+      .setEnvironmentVariable("SONARQUBE_SCANNER_PARAMS", "{}")
+      .setProperty("sonar.sourceEncoding", "UTF-8");
+
+    TestUtils.executeBuild(ORCHESTRATOR, scanner);
+  }
+
   private BuildResult runBeginBuildAndEndForStandardProject(Path projectDir, String projectName, Boolean setProjectBaseDirExplicitly, Boolean useNuGet) {
     String token = TestUtils.getNewToken(ORCHESTRATOR);
     String folderName = projectDir.getFileName().toString();
@@ -1393,7 +1645,7 @@ class ScannerMSBuildTest {
 
     }
 
-    ORCHESTRATOR.executeBuild(scanner);
+    TestUtils.executeBuild(ORCHESTRATOR, scanner);
     if (useNuGet) {
       TestUtils.runNuGet(ORCHESTRATOR, projectDir, false, "restore");
     }
@@ -1403,7 +1655,7 @@ class ScannerMSBuildTest {
 
   private void validateRazorProject(String projectName) throws IOException {
     String localProjectKey = PROJECT_KEY + projectName;
-    ORCHESTRATOR.getServer().provisionProject(localProjectKey, projectName);
+    TestUtils.provisionProject(ORCHESTRATOR, localProjectKey, projectName);
 
     if (TestUtils.getMsBuildPath(ORCHESTRATOR).toString().contains("2017")) {
       return; // We can't build razor under VS 2017 CI context
@@ -1412,7 +1664,7 @@ class ScannerMSBuildTest {
     Path projectDir = TestUtils.projectDir(basePath, projectName);
     String token = TestUtils.getNewToken(ORCHESTRATOR);
 
-    ORCHESTRATOR.executeBuild(TestUtils.newScannerBegin(ORCHESTRATOR, localProjectKey, projectDir, token, ScannerClassifier.NET_FRAMEWORK));
+    TestUtils.executeBuild(ORCHESTRATOR, TestUtils.newScannerBegin(ORCHESTRATOR, localProjectKey, projectDir, token, ScannerClassifier.NET_FRAMEWORK));
     TestUtils.runNuGet(ORCHESTRATOR, projectDir, false, "restore");
     TestUtils.runDotnetCommand(projectDir, "build", "--no-incremental");
     BuildResult result = TestUtils.executeEndStepAndDumpResults(ORCHESTRATOR, projectDir, localProjectKey, token);
@@ -1441,11 +1693,11 @@ class ScannerMSBuildTest {
       ? String.format("%1$s:%1$s:2DC588FC-16FB-42F8-9FDA-193852E538AF", projectKeyName)
       : String.format("%1$s:Test", projectKeyName);
 
-    ORCHESTRATOR.getServer().restoreProfile(FileLocation.of("projects/ExcludedTest/TestQualityProfile.xml"));
-    ORCHESTRATOR.getServer().provisionProject(projectKeyName, projectKeyName);
-    ORCHESTRATOR.getServer().associateProjectToQualityProfile(projectKeyName, "cs", "ProfileForTest");
+    TestUtils.restoreProfile(ORCHESTRATOR, FileLocation.of("projects/ExcludedTest/TestQualityProfile.xml"));
+    TestUtils.provisionProject(ORCHESTRATOR, projectKeyName, projectKeyName);
+    TestUtils.associateProjectToQualityProfile(ORCHESTRATOR, projectKeyName, "cs", "ProfileForTest");
 
-    ORCHESTRATOR.executeBuild(build);
+    TestUtils.executeBuild(ORCHESTRATOR, build);
 
     TestUtils.runMSBuild(ORCHESTRATOR, projectDir, environmentVariables, 60 * 1000, "/t:Restore,Rebuild");
 
@@ -1482,97 +1734,7 @@ class ScannerMSBuildTest {
     return TestUtils.newWsClient(ORCHESTRATOR);
   }
 
-  private static void startProxy(boolean needProxyAuth) throws Exception {
-    httpProxyPort = NetworkUtils.getNextAvailablePort(NetworkUtils.getLocalhost());
-
-    // Setup Threadpool
-    QueuedThreadPool threadPool = new QueuedThreadPool();
-    threadPool.setMaxThreads(500);
-
-    server = new Server(threadPool);
-
-    // HTTP Configuration
-    HttpConfiguration httpConfig = new HttpConfiguration();
-    httpConfig.setSecureScheme("https");
-    httpConfig.setSendServerVersion(true);
-    httpConfig.setSendDateHeader(false);
-
-    // Handler Structure
-    HandlerCollection handlers = new HandlerCollection();
-    handlers.setHandlers(new Handler[]{proxyHandler(needProxyAuth), new DefaultHandler()});
-    server.setHandler(handlers);
-
-    ServerConnector http = new ServerConnector(server, new HttpConnectionFactory(httpConfig));
-    http.setPort(httpProxyPort);
-    server.addConnector(http);
-
-    server.start();
-  }
-
-  private static ServletContextHandler proxyHandler(boolean needProxyAuth) {
-    ServletContextHandler contextHandler = new ServletContextHandler();
-    if (needProxyAuth) {
-      contextHandler.setSecurityHandler(basicAuth("Private!"));
-    }
-    contextHandler.setServletHandler(newServletHandler());
-    return contextHandler;
-  }
-
-  private static SecurityHandler basicAuth(String realm) {
-    HashLoginService l = new HashLoginService();
-
-    UserStore userStore = new UserStore();
-    userStore.addUser(ScannerMSBuildTest.PROXY_USER, Credential.getCredential(ScannerMSBuildTest.PROXY_PASSWORD), new String[]{"user"});
-
-    l.setUserStore(userStore);
-    l.setName(realm);
-
-    Constraint constraint = new Constraint();
-    constraint.setName(Constraint.__BASIC_AUTH);
-    constraint.setRoles(new String[]{"user"});
-    constraint.setAuthenticate(true);
-
-    ConstraintMapping cm = new ConstraintMapping();
-    cm.setConstraint(constraint);
-    cm.setPathSpec("/*");
-
-    ConstraintSecurityHandler csh = new ConstraintSecurityHandler();
-    csh.setAuthenticator(new ProxyAuthenticator());
-    csh.setRealmName("myrealm");
-    csh.addConstraintMapping(cm);
-    csh.setLoginService(l);
-
-    return csh;
-
-  }
-
-  private static ServletHandler newServletHandler() {
-    ServletHandler handler = new ServletHandler();
-    handler.addServletWithMapping(MyProxyServlet.class, "/*");
-    return handler;
-  }
-
   private static String getFileKey(String projectKey) {
     return TestUtils.hasModules(ORCHESTRATOR) ? "my.project:my.project:1049030E-AC7A-49D0-BEDC-F414C5C7DDD8:Foo.cs" : projectKey + ":Foo.cs";
   }
-
-  private List<Issue> filter(List<Issue> issues, String ruleIdPrefix) {
-    return issues
-      .stream()
-      .filter(x -> x.getRule().startsWith(ruleIdPrefix))
-      .collect(Collectors.toList());
-  }
-
-  public static class MyProxyServlet extends ProxyServlet {
-    @Override
-    protected void service(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
-      seenByProxy.add(request.getRequestURI());
-      super.service(request, response);
-    }
-
-    @Override
-    protected void sendProxyRequest(HttpServletRequest clientRequest, HttpServletResponse proxyResponse, Request proxyRequest) {
-      super.sendProxyRequest(clientRequest, proxyResponse, proxyRequest);
-    }
-  }
 }
@@ -19,34 +19,123 @@
  */
 package com.sonar.it.scanner.msbuild.sonarqube;
 
+import com.sonar.it.scanner.msbuild.utils.MeasureCache;
+import com.sonar.it.scanner.msbuild.utils.ProjectCleaner;
+import com.sonar.it.scanner.msbuild.utils.ProjectScope;
+import com.sonar.it.scanner.msbuild.utils.SpooledBuildResult;
 import com.sonar.it.scanner.msbuild.utils.TestUtils;
+import com.sonar.it.scanner.msbuild.utils.WebhookReceiver;
+import com.sonar.it.scanner.msbuild.utils.WsClientPool;
+import com.sonar.it.scanner.msbuild.utils.WsMetrics;
 import com.sonar.orchestrator.Orchestrator;
 import com.sonar.orchestrator.container.Edition;
 import com.sonar.orchestrator.junit5.OrchestratorExtension;
 import com.sonar.orchestrator.locator.FileLocation;
+import javax.annotation.CheckForNull;
 import org.junit.jupiter.api.extension.AfterAllCallback;
+import org.junit.jupiter.api.extension.AfterEachCallback;
 import org.junit.jupiter.api.extension.BeforeAllCallback;
+import org.junit.jupiter.api.extension.BeforeEachCallback;
 import org.junit.jupiter.api.extension.ExtensionContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-public class Tests implements BeforeAllCallback, AfterAllCallback {
+public class Tests implements BeforeAllCallback, AfterAllCallback, BeforeEachCallback, AfterEachCallback {
+  private static final Logger LOG = LoggerFactory.getLogger(Tests.class);
 
   public static final Orchestrator ORCHESTRATOR = createOrchestrator();
 
-  private volatile int usageCount;
+  // Null when the webhook could not be registered, tests then fall back to polling
+  @CheckForNull
+  public static WebhookReceiver WEBHOOKS;
+
+  // JUnit creates one extension instance per test class, and the classes can run in parallel: the count must be shared.
+  private static final Object usageLock = new Object();
+  private static int usageCount = 0;
+  // JUnit calls afterAll also when beforeAll failed: only a class counted in usageCount releases the server
+  private boolean usingServer;
+
+  // Keys of the projects provisioned by the @BeforeAll methods of the class
+  private ProjectScope classScope;
 
   @Override
   public void beforeAll(ExtensionContext extensionContext) {
-    usageCount += 1;
-    if (usageCount == 1) {
-      ORCHESTRATOR.start();
+    // Classes starting concurrently must wait until the server is up.
+    synchronized (usageLock) {
+      if (usageCount == 0) {
+        ORCHESTRATOR.start();
+        startWebhookReceiver();
+      }
+      // Counted once the server is up: when it fails to start, the next class tries again
+      usageCount += 1;
+      usingServer = true;
     }
+    classScope = ProjectScope.open(extensionContext.getRequiredTestClass().getName());
+    SpooledBuildResult.open();
   }
 
   @Override
   public void afterAll(ExtensionContext extensionContext) throws Exception {
-    usageCount -= 1;
-    if (usageCount == 0) {
-      ORCHESTRATOR.stop();
+    if (classScope != null) {
+      closeScope(classScope);
+      classScope = null;
+    }
+    // The results of the @BeforeAll methods
+    SpooledBuildResult.deleteAll();
+    if (!usingServer) {
+      return;
+    }
+    usingServer = false;
+    synchronized (usageLock) {
+      usageCount -= 1;
+      if (usageCount == 0) {
+        ProjectCleaner.awaitAll();
+        LOG.info("TEST METRICS: web service calls of the run: {}", WsMetrics.GLOBAL);
+        WsClientPool.clear();
+        if (WEBHOOKS != null) {
+          WEBHOOKS.stop();
+          WEBHOOKS = null;
+        }
+        ORCHESTRATOR.stop();
+      }
+    }
+  }
+
+  @Override
+  public void beforeEach(ExtensionContext extensionContext) {
+    ProjectScope.open(extensionContext.getRequiredTestClass().getName());
+    SpooledBuildResult.open();
+    WsMetrics.open();
+  }
+
+  @Override
+  public void afterEach(ExtensionContext extensionContext) {
+    LOG.info("TEST METRICS: web service calls of {}.{}: {}", extensionContext.getRequiredTestClass().getSimpleName(), extensionContext.getDisplayName(),
+      WsMetrics.close());
+    MeasureCache.invalidate();
+    SpooledBuildResult.deleteAll();
+    var scope = ProjectScope.current();
+    if (scope != null && scope != classScope) {
+      closeScope(scope);
+    }
+  }
+
+  /**
+   * Deletes the projects of the scope, also when closing it reports a key used by another class.
+   */
+  private void closeScope(ProjectScope scope) {
+    try {
+      scope.close();
+    } finally {
+      ProjectCleaner.deleteAsync(ORCHESTRATOR, scope.ownedKeys());
+    }
+  }
+
+  private static void startWebhookReceiver() {
+    try {
+      WEBHOOKS = WebhookReceiver.start(ORCHESTRATOR);
+    } catch (Exception e) {
+      LOG.warn("TEST SETUP: cannot register the webhook receiver, tests will poll the server instead", e);
     }
   }
 
@@ -57,6 +146,7 @@ public class Tests implements BeforeAllCallback, AfterAllCallback {
       .setSonarVersion(version)
       .setEdition(Edition.DEVELOPER)
       .setServerProperty("sonar.telemetry.enable", "false") // Disabling telemetry to avoid polluting our own data.
+      .setServerProperty("sonar.validateWebhooks", "false") // The webhook receiver of the tests listens on localhost.
       .addPlugin(TestUtils.getMavenLocation("com.sonarsource.cpp", "sonar-cfamily-plugin", System.getProperty("sonar.cfamilyplugin.version", "LATEST_RELEASE")))
       .addPlugin(TestUtils.getMavenLocation("org.sonarsource.css", "sonar-css-plugin", System.getProperty("sonar.css.version", "LATEST_RELEASE")))
       .addPlugin(TestUtils.getMavenLocation("org.sonarsource.dotnet", "sonar-csharp-plugin", System.getProperty("sonar.csharpplugin.version", "DEV")))
@@ -0,0 +1,97 @@
+/*
+ * SonarScanner for .NET
+ * Copyright (C) 2016-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.it.scanner.msbuild.utils;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Decides whether a failed build is worth another attempt, from its output. Only the failures caused by a file locked by another
+ * process, e.g. an MSBuild node or an antivirus still holding an output, are transient. A compilation error fails the same way on each
+ * attempt, and so does a failure that cannot be classified.
+ */
+public class BuildRetryPolicy {
+  /**
+   * Lines of the failures that another attempt can fix.
+   */
+  public static final List<Pattern> TRANSIENT = List.of(
+    // Unable to copy file, and could not copy file after the retries of the Copy task
+    Pattern.compile("error MSB302[17]"),
+    // Cannot open the output for writing
+    Pattern.compile("error CS2012"),
+    Pattern.compile("being used by another process"));
+  /**
+   * Lines of the failures that happen again on each attempt.
+   */
+  public static final List<Pattern> DETERMINISTIC = List.of(
+    Pattern.compile("error (CS(?!2012)|BC)\\d{4}"),
+    Pattern.compile("error AD0001"));
+
+  public enum Failure {
+    TRANSIENT,
+    DETERMINISTIC,
+    UNKNOWN
+  }
+
+  private final int maxAttempts;
+  private final Duration initialBackoff;
+
+  /**
+   * @param initialBackoff the wait before the second attempt, doubled before each next one.
+   */
+  public BuildRetryPolicy(int maxAttempts, Duration initialBackoff) {
+    this.maxAttempts = maxAttempts;
+    this.initialBackoff = initialBackoff;
+  }
+
+  /**
+   * Makes the matcher record the lines needed by {@link #classify}.
+   */
+  public static LogMatcher watch(LogMatcher matcher) {
+    Stream.concat(TRANSIENT.stream(), DETERMINISTIC.stream()).forEach(matcher::expect);
+    return matcher;
+  }
+
+  /**
+   * @param matcher passed to {@link #watch} before the build ran.
+   */
+  public static Failure classify(LogMatcher matcher) {
+    if (DETERMINISTIC.stream().anyMatch(x -> matcher.match(x) != null)) {
+      return Failure.DETERMINISTIC;
+    }
+    return TRANSIENT.stream().anyMatch(x -> matcher.match(x) != null) ? Failure.TRANSIENT : Failure.UNKNOWN;
+  }
+
+  /**
+   * @param attempt the number of the attempt that failed, starting at 1.
+   */
+  public boolean shouldRetry(Failure failure, int attempt) {
+    return failure == Failure.TRANSIENT && attempt < maxAttempts;
+  }
+
+  /**
+   * @return how long to wait after the given failed attempt, starting at 1.
+   */
+  public Duration backoff(int attempt) {
+    return initialBackoff.multipliedBy(1L << (attempt - 1));
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * SonarScanner for .NET
+ * Copyright (C) 2016-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.it.scanner.msbuild.utils;
+
+import com.google.gson.JsonParser;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Waits for Compute Engine tasks through their {@code api/ce/task} URL. All the tasks are polled asynchronously over one HTTP/2
+ * client, starting quickly and slowing down while a task is pending, so that tests waiting for tasks do not block each other.
+ */
+public class CeTaskWatcher {
+  private static final Logger LOG = LoggerFactory.getLogger(CeTaskWatcher.class);
+  private static final Duration FIRST_INTERVAL = Duration.ofMillis(500);
+  private static final Duration MAX_INTERVAL = Duration.ofSeconds(5);
+
+  private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).connectTimeout(Duration.ofSeconds(30)).build();
+  private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(x -> {
+    var thread = new Thread(x, "its-ce-task-watcher");
+    thread.setDaemon(true);
+    return thread;
+  });
+  private final String authorization;
+  private final Duration timeout;
+
+  /**
+   * @param authorization value of the Authorization header of the polls.
+   */
+  public CeTaskWatcher(String authorization, Duration timeout) {
+    this.authorization = authorization;
+    this.timeout = timeout;
+  }
+
+  /**
+   * @return the future of the task, completed when its status is SUCCESS, and completed exceptionally when the task fails or
+   * the timeout is reached.
+   */
+  public CompletableFuture<Void> watch(URI taskUri) {
+    var result = new CompletableFuture<Void>();
+    poll(taskUri, result, FIRST_INTERVAL, System.nanoTime() + timeout.toNanos());
+    return result;
+  }
+
+  public CompletableFuture<Void> watchAll(List<URI> taskUris) {
+    return CompletableFuture.allOf(taskUris.stream().map(this::watch).toArray(CompletableFuture[]::new));
+  }
+
+  private void poll(URI taskUri, CompletableFuture<Void> result, Duration interval, long deadline) {
+    LOG.info("Polling for task status using {}", taskUri);
+    var request = HttpRequest.newBuilder(taskUri).header("Authorization", authorization).build();
+    client.sendAsync(request, HttpResponse.BodyHandlers.ofString()).whenComplete((response, error) -> {
+      var status = error == null && response.statusCode() == 200 ? status(response.body()) : null;
+      if ("SUCCESS".equals(status)) {
+        result.complete(null);
+      } else if ("FAILED".equals(status) || "CANCELED".equals(status)) {
+        result.completeExceptionally(new IllegalStateException("Task " + taskUri + " ended with status " + status));
+      } else if (System.nanoTime() + interval.toNanos() > deadline) {
+        result.completeExceptionally(new TimeoutException("Task " + taskUri + " is still not processed, last status: " + status));
+      } else {
+        var next = interval.multipliedBy(2).compareTo(MAX_INTERVAL) < 0 ? interval.multipliedBy(2) : MAX_INTERVAL;
+        scheduler.schedule(() -> poll(taskUri, result, next, deadline), interval.toMillis(), TimeUnit.MILLISECONDS);
+      }
+    });
+  }
+
+  private static String status(String body) {
+    try {
+      return JsonParser.parseString(body).getAsJsonObject().getAsJsonObject("task").get("status").getAsString();
+    } catch (RuntimeException e) {
+      LOG.warn("Unexpected task response: {}", body);
+      return null;
+    }
+  }
+}
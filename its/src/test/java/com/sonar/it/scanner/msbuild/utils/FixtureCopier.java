@@ -0,0 +1,151 @@
+/*
+ * SonarScanner for .NET
+ * Copyright (C) 2016-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.it.scanner.msbuild.utils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Copies a directory tree using all the cores: the tree is walked once, all the directories are created up front, and the files
+ * are copied by fork-join tasks. Large files are copied with {@link FileChannel#transferTo}, which lets the OS avoid copying
+ * through user space.
+ */
+public class FixtureCopier {
+  private static final Logger LOG = LoggerFactory.getLogger(FixtureCopier.class);
+  private static final long LARGE_FILE_SIZE = 1024 * 1024;
+  // A task copies its files sequentially below this number of files or bytes
+  private static final int TASK_FILE_COUNT = 16;
+  private static final long TASK_BYTE_COUNT = 4 * LARGE_FILE_SIZE;
+
+  private FixtureCopier() {
+  }
+
+  public static void copy(Path source, Path destination) throws IOException {
+    long start = System.nanoTime();
+    var directories = new ArrayList<Path>();
+    var files = new ArrayList<SourceFile>();
+    Files.walkFileTree(source, new SimpleFileVisitor<>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+        directories.add(source.relativize(dir));
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+        if (attrs.isRegularFile()) {
+          files.add(new SourceFile(source.relativize(file), attrs.size()));
+        }
+        return FileVisitResult.CONTINUE;
+      }
+    });
+    // Pre-order walk: parents are created before their children
+    for (var directory : directories) {
+      Files.createDirectories(destination.resolve(directory.toString()));
+    }
+    try {
+      ForkJoinPool.commonPool().invoke(new CopyTask(source, destination, files, 0, files.size()));
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+    long bytes = files.stream().mapToLong(x -> x.size).sum();
+    long elapsedMs = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+    LOG.info("TEST SETUP: copied {} files, {} directories, {} KB from {} in {} ms ({} KB/s)", files.size(), directories.size(), bytes / 1024, source,
+      elapsedMs, bytes * 1000 / 1024 / elapsedMs);
+  }
+
+  private static void copyFile(Path from, Path to, long size) throws IOException {
+    if (size < LARGE_FILE_SIZE) {
+      Files.copy(from, to, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+      return;
+    }
+    try (var in = FileChannel.open(from, StandardOpenOption.READ);
+      var out = FileChannel.open(to, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      long position = 0;
+      while (position < size) {
+        position += in.transferTo(position, size - position, out);
+      }
+    }
+    Files.setLastModifiedTime(to, Files.getLastModifiedTime(from));
+  }
+
+  private static class SourceFile {
+    private final Path path;
+    private final long size;
+
+    private SourceFile(Path path, long size) {
+      this.path = path;
+      this.size = size;
+    }
+  }
+
+  private static class CopyTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final transient Path source;
+    private final transient Path destination;
+    private final transient List<SourceFile> files;
+    private final int from;
+    private final int to;
+
+    private CopyTask(Path source, Path destination, List<SourceFile> files, int from, int to) {
+      this.source = source;
+      this.destination = destination;
+      this.files = files;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      long bytes = 0;
+      for (int i = from; i < to; i++) {
+        bytes += files.get(i).size;
+      }
+      if (to - from <= 1 || (to - from <= TASK_FILE_COUNT && bytes <= TASK_BYTE_COUNT)) {
+        for (int i = from; i < to; i++) {
+          var file = files.get(i);
+          try {
+            copyFile(source.resolve(file.path), destination.resolve(file.path.toString()), file.size);
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        }
+      } else {
+        int middle = (from + to) >>> 1;
+        invokeAll(new CopyTask(source, destination, files, from, middle), new CopyTask(source, destination, files, middle, to));
+      }
+    }
+  }
+}
@@ -0,0 +1,262 @@
+/*
+ * SonarScanner for .NET
+ * Copyright (C) 2016-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.it.scanner.msbuild.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Materializes a fixture of the {@code projects} folder into the directory of a test.
+ * <p>
+ * Each fixture is copied once per run into a store under {@code target/fixtures}, with a manifest holding the content hash of
+ * every file. A test gets hard links to the store files, and copies of the files it writes to. The store files are read-only, so a
+ * test writing to a file it did not declare fails at the point of the write instead of corrupting the fixture of the other tests.
+ * A store file whose hash changed anyway, e.g. after a test made a link writable again, is detected when the store is verified
+ * before the next materialization. It is then restored, and flagged in the manifest to be copied from then on, also in the next runs.
+ * <p>
+ * When hard links are not supported between the store and the destination (e.g. different volumes), files are copied with
+ * {@link FixtureCopier} for the rest of the run.
+ */
+public class FixtureMaterializer {
+  private static final Logger LOG = LoggerFactory.getLogger(FixtureMaterializer.class);
+  private static final Path SOURCE_ROOT = Paths.get("projects");
+  private static final Path STORE_ROOT = Paths.get("target", "fixtures");
+  private static final Map<String, FixtureMaterializer> FIXTURES = new ConcurrentHashMap<>();
+  // Shared by the fixtures: links fail the same way for all of them between two volumes
+  private static volatile boolean linksSupported = true;
+
+  private final String name;
+  private final Path source;
+  private final Path store;
+  private final Path manifestPath;
+  private Map<String, Entry> manifest;
+
+  private FixtureMaterializer(String name, Path source) {
+    this.name = name;
+    this.source = source;
+    this.store = STORE_ROOT.resolve(name);
+    this.manifestPath = STORE_ROOT.resolve(name + ".manifest");
+  }
+
+  public static Path materialize(String fixtureName, Path destination, Collection<String> writableFiles) throws IOException {
+    return materialize(fixtureName, SOURCE_ROOT.resolve(fixtureName), destination, writableFiles);
+  }
+
+  /**
+   * @param source the directory of a fixture that is not part of the {@code projects} folder, e.g. a generated one.
+   */
+  public static Path materialize(String fixtureName, Path source, Path destination, Collection<String> writableFiles) throws IOException {
+    var fixture = FIXTURES.computeIfAbsent(fixtureName, x -> new FixtureMaterializer(x, source));
+    synchronized (fixture) {
+      fixture.materializeTo(destination, writableFiles.stream().map(FixtureMaterializer::normalize).collect(Collectors.toSet()));
+    }
+    return destination;
+  }
+
+  private void materializeTo(Path destination, Set<String> writableFiles) throws IOException {
+    long start = System.nanoTime();
+    if (manifest == null) {
+      createStore();
+    } else {
+      verifyStore();
+    }
+    if (!linksSupported) {
+      // From the source: the store files are read-only
+      FixtureCopier.copy(source, destination);
+      LOG.info("TEST SETUP: materialized fixture {} in {} ms (copied)", name, (System.nanoTime() - start) / 1_000_000);
+      return;
+    }
+    int linked = 0;
+    int copied = 0;
+    for (var entry : manifest.values()) {
+      var storeFile = store.resolve(entry.path);
+      var target = destination.resolve(entry.path);
+      Files.createDirectories(target.getParent());
+      if (linksSupported && !entry.mutable && !writableFiles.contains(entry.path)) {
+        try {
+          Files.createLink(target, storeFile);
+          linked++;
+          continue;
+        } catch (UnsupportedOperationException | IOException e) {
+          if (!linksUnsupported(storeFile, target, e)) {
+            throw e;
+          }
+        }
+      }
+      Files.copy(source.resolve(entry.path), target, StandardCopyOption.COPY_ATTRIBUTES);
+      copied++;
+    }
+    LOG.info("TEST SETUP: materialized fixture {} in {} ms ({} linked, {} copied)", name, (System.nanoTime() - start) / 1_000_000, linked, copied);
+  }
+
+  /**
+   * @return whether the failure comes from hard links not being supported between the store and the destination, in which case they
+   * are disabled for the rest of the run. Other failures are not a reason to copy the next fixtures.
+   */
+  private static boolean linksUnsupported(Path storeFile, Path target, Exception failure) throws IOException {
+    if (!(failure instanceof UnsupportedOperationException) && Files.getFileStore(storeFile).equals(Files.getFileStore(target.getParent()))) {
+      return false;
+    }
+    synchronized (FixtureMaterializer.class) {
+      if (linksSupported) {
+        linksSupported = false;
+        LOG.warn("TEST SETUP: cannot create hard links from {} to {}, fixtures are copied for the rest of the run, which is slower. "
+          + "Put the temporary directory on the volume of the target folder (e.g. -Djava.io.tmpdir) to link them: {}",
+          STORE_ROOT.toAbsolutePath(), target.getParent(), failure.toString());
+      }
+    }
+    return true;
+  }
+
+  private void createStore() throws IOException {
+    var previouslyMutable = readMutablePaths();
+    deleteStore();
+    FixtureCopier.copy(source, store);
+    manifest = new TreeMap<>();
+    List<Path> files;
+    try (var stream = Files.walk(store)) {
+      files = stream.filter(Files::isRegularFile).collect(Collectors.toList());
+    }
+    for (var file : files) {
+      var path = normalize(store.relativize(file).toString());
+      manifest.put(path, Entry.of(path, file, previouslyMutable.contains(path)));
+      file.toFile().setReadOnly();
+    }
+    writeManifest();
+  }
+
+  private void deleteStore() throws IOException {
+    if (Files.isDirectory(store)) {
+      // Read-only files cannot be deleted on Windows
+      try (var stream = Files.walk(store)) {
+        stream.filter(Files::isRegularFile).forEach(x -> x.toFile().setWritable(true));
+      }
+    }
+    FileUtils.deleteDirectory(store.toFile());
+  }
+
+  private void verifyStore() throws IOException {
+    var modified = new ArrayList<Entry>();
+    for (var entry : manifest.values()) {
+      var file = store.resolve(entry.path);
+      if (!Files.isRegularFile(file)) {
+        modified.add(entry);
+      } else if ((Files.size(file) != entry.size || !Files.getLastModifiedTime(file).equals(entry.lastModified)) && !hash(file).equals(entry.hash)) {
+        modified.add(entry);
+      } else if (Files.isWritable(file)) {
+        // A test made its link writable, e.g. to delete it
+        file.toFile().setReadOnly();
+      }
+    }
+    for (var entry : modified) {
+      LOG.warn("TEST SETUP: file {} of fixture {} was modified by a test, it will be copied from now on", entry.path, name);
+      var file = store.resolve(entry.path);
+      // Delete first: overwriting in place would also change the files still linked in the directory of the previous test
+      file.toFile().setWritable(true);
+      Files.deleteIfExists(file);
+      Files.copy(source.resolve(entry.path), file, StandardCopyOption.COPY_ATTRIBUTES);
+      manifest.put(entry.path, Entry.of(entry.path, file, true));
+      file.toFile().setReadOnly();
+    }
+    if (!modified.isEmpty()) {
+      writeManifest();
+    }
+  }
+
+  private Set<String> readMutablePaths() throws IOException {
+    var paths = new HashSet<String>();
+    if (Files.exists(manifestPath)) {
+      for (var line : Files.readAllLines(manifestPath, StandardCharsets.UTF_8)) {
+        // <hash> <size> <mutable> <path>
+        var parts = line.split(" ", 4);
+        if (parts.length == 4 && parts[2].equals("1")) {
+          paths.add(parts[3]);
+        }
+      }
+    }
+    return paths;
+  }
+
+  private void writeManifest() throws IOException {
+    var lines = manifest.values().stream()
+      .map(x -> x.hash + " " + x.size + " " + (x.mutable ? "1" : "0") + " " + x.path)
+      .collect(Collectors.toList());
+    Files.write(manifestPath, lines, StandardCharsets.UTF_8);
+  }
+
+  private static String normalize(String path) {
+    return path.replace('\\', '/');
+  }
+
+  private static String hash(Path file) throws IOException {
+    try (InputStream in = Files.newInputStream(file)) {
+      var digest = MessageDigest.getInstance("SHA-256");
+      var buffer = new byte[64 * 1024];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        digest.update(buffer, 0, read);
+      }
+      return HexFormat.of().formatHex(digest.digest());
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static class Entry {
+    private final String path;
+    private final String hash;
+    private final long size;
+    private final FileTime lastModified;
+    private final boolean mutable;
+
+    private Entry(String path, String hash, long size, FileTime lastModified, boolean mutable) {
+      this.path = path;
+      this.hash = hash;
+      this.size = size;
+      this.lastModified = lastModified;
+      this.mutable = mutable;
+    }
+
+    private static Entry of(String path, Path file, boolean mutable) throws IOException {
+      return new Entry(path, hash(file), Files.size(file), Files.getLastModifiedTime(file), mutable);
+    }
+  }
+}
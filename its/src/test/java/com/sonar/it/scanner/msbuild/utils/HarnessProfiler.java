@@ -0,0 +1,135 @@
+/*
+ * SonarScanner for .NET
+ * Copyright (C) 2016-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.it.scanner.msbuild.utils;
+
+import com.sonar.it.scanner.msbuild.utils.PhaseTimer.Phase;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.extension.AfterAllCallback;
+import org.junit.jupiter.api.extension.AfterEachCallback;
+import org.junit.jupiter.api.extension.BeforeEachCallback;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Splits the wall time of each test between the {@link Phase phases} recorded by {@link PhaseTimer}, the rest being the
+ * assertions and the other test code, and logs a flame-style summary per class: the share of each phase for the whole class and
+ * for its slowest tests.
+ * <p>
+ * It must be registered after {@link PhaseTimings}, which opens the timer of each test before it and closes it after it.
+ */
+public class HarnessProfiler implements BeforeEachCallback, AfterEachCallback, AfterAllCallback {
+  private static final Logger LOG = LoggerFactory.getLogger(HarnessProfiler.class);
+  private static final ExtensionContext.Namespace NAMESPACE = ExtensionContext.Namespace.create(HarnessProfiler.class);
+  private static final Map<Phase, Character> SYMBOLS = Map.of(
+    Phase.GENERATE, 'g',
+    Phase.COPY, 'c',
+    Phase.SERVER_API, 's',
+    Phase.BEGIN, 'b',
+    Phase.BUILD, 'm',
+    Phase.BUILD_RETRY, 'r',
+    Phase.END, 'e',
+    Phase.CE_WAIT, 'w');
+  private static final char OTHER_SYMBOL = '.';
+  private static final int BAR_WIDTH = 50;
+  private static final int SLOWEST_TESTS = 10;
+
+  // Test class -> profiles of its tests
+  private static final Map<Class<?>, ConcurrentLinkedQueue<TestProfile>> PROFILES = new ConcurrentHashMap<>();
+
+  @Override
+  public void beforeEach(ExtensionContext context) {
+    context.getStore(NAMESPACE).put(context.getUniqueId(), System.nanoTime());
+  }
+
+  @Override
+  public void afterEach(ExtensionContext context) {
+    var wallMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - context.getStore(NAMESPACE).remove(context.getUniqueId(), Long.class));
+    var timer = PhaseTimer.current();
+    var phases = timer == null ? Map.<Phase, Long>of() : timer.millis();
+    PROFILES.computeIfAbsent(context.getRequiredTestClass(), x -> new ConcurrentLinkedQueue<>())
+      .add(new TestProfile(context.getRequiredTestMethod().getName() + (context.getDisplayName().startsWith("[") ? " " + context.getDisplayName() : ""),
+        wallMillis, phases));
+  }
+
+  @Override
+  public void afterAll(ExtensionContext context) {
+    var profiles = PROFILES.remove(context.getRequiredTestClass());
+    if (profiles == null) {
+      return;
+    }
+    var total = new EnumMap<Phase, Long>(Phase.class);
+    long wallMillis = 0;
+    for (var profile : profiles) {
+      wallMillis += profile.wallMillis;
+      profile.phases.forEach((phase, millis) -> total.merge(phase, millis, Long::sum));
+    }
+    var summary = new StringBuilder()
+      .append(String.format("HARNESS PROFILE: %s, %d tests, %d s%n", context.getRequiredTestClass().getSimpleName(), profiles.size(), wallMillis / 1000))
+      .append(String.format("  %s%n", bar(wallMillis, total)));
+    for (var phase : Phase.values()) {
+      summary.append(line(SYMBOLS.get(phase) + " " + phase, total.getOrDefault(phase, 0L), wallMillis));
+    }
+    summary.append(line(OTHER_SYMBOL + " ASSERTIONS AND OTHER", other(wallMillis, total), wallMillis))
+      .append(String.format("  Slowest tests:%n"));
+    profiles.stream()
+      .sorted(Comparator.comparingLong((TestProfile x) -> x.wallMillis).reversed())
+      .limit(SLOWEST_TESTS)
+      .forEach(x -> summary.append(String.format("  %s %6d s  %s%n", bar(x.wallMillis, x.phases), x.wallMillis / 1000, x.name)));
+    LOG.info(summary.toString().stripTrailing());
+  }
+
+  private static String line(String category, long millis, long wallMillis) {
+    return String.format("  %-24s %6d s %3d%%%n", category, millis / 1000, wallMillis == 0 ? 0 : millis * 100 / wallMillis);
+  }
+
+  private static long other(long wallMillis, Map<Phase, Long> phases) {
+    // Phases recorded by other threads can overlap with the ones of the test thread
+    return Math.max(0, wallMillis - phases.values().stream().mapToLong(Long::longValue).sum());
+  }
+
+  /**
+   * @return the phases as a stacked bar, each one taking a share of the width proportional to its time.
+   */
+  private static String bar(long wallMillis, Map<Phase, Long> phases) {
+    long scale = Math.max(wallMillis, phases.values().stream().mapToLong(Long::longValue).sum());
+    if (scale == 0) {
+      return "[" + String.valueOf(OTHER_SYMBOL).repeat(BAR_WIDTH) + "]";
+    }
+    var bar = new StringBuilder("[");
+    long cumulated = 0;
+    int position = 0;
+    for (var phase : Phase.values()) {
+      cumulated += phases.getOrDefault(phase, 0L);
+      int end = (int) Math.round((double) cumulated * BAR_WIDTH / scale);
+      bar.append(String.valueOf(SYMBOLS.get(phase)).repeat(end - position));
+      position = end;
+    }
+    return bar.append(String.valueOf(OTHER_SYMBOL).repeat(BAR_WIDTH - position)).append(']').toString();
+  }
+
+  private record TestProfile(String name, long wallMillis, Map<Phase, Long> phases) {
+  }
+}
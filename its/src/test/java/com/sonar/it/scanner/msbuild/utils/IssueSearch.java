@@ -0,0 +1,80 @@
+/*
+ * SonarScanner for .NET
+ * Copyright (C) 2016-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.it.scanner.msbuild.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonarqube.ws.Issues.Issue;
+import org.sonarqube.ws.client.WsClient;
+import org.sonarqube.ws.client.issues.SearchRequest;
+
+/**
+ * Streams all the issues of an {@code api/issues/search} request, not only the first page. The first page gives the total, the
+ * other pages are then fetched concurrently and streamed in order.
+ */
+public class IssueSearch {
+  private static final Logger LOG = LoggerFactory.getLogger(IssueSearch.class);
+  // Maximum page size of api/issues/search
+  private static final int PAGE_SIZE = 500;
+  // The server does not return results beyond the 10 000th one
+  private static final int MAX_RESULTS = 10_000;
+  private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+  private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(4, x -> {
+    var thread = new Thread(x, "its-issue-search-" + THREAD_COUNT.incrementAndGet());
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private IssueSearch() {
+  }
+
+  /**
+   * @param requestFactory creates the request of a page, without paging parameters.
+   */
+  public static Stream<Issue> stream(WsClient client, Supplier<SearchRequest> requestFactory) {
+    var firstPage = client.issues().search(requestFactory.get().setP("1").setPs(Integer.toString(PAGE_SIZE)));
+    long total = firstPage.getPaging().getTotal();
+    if (total > MAX_RESULTS) {
+      LOG.warn("Only the first {} of the {} issues can be retrieved", MAX_RESULTS, total);
+      total = MAX_RESULTS;
+    }
+    int pageCount = (int) ((total + PAGE_SIZE - 1) / PAGE_SIZE);
+    var testMetrics = WsMetrics.current();
+    var pages = new ArrayList<CompletableFuture<List<Issue>>>();
+    for (int page = 2; page <= pageCount; page++) {
+      // Requests are created by the calling thread, the factory may depend on the context of the test
+      var request = requestFactory.get().setP(Integer.toString(page)).setPs(Integer.toString(PAGE_SIZE));
+      pages.add(CompletableFuture.supplyAsync(() -> WsMetrics.callWith(testMetrics, () -> client.issues().search(request).getIssuesList()), EXECUTOR));
+    }
+    return Stream.concat(firstPage.getIssuesList().stream(), pages.stream().flatMap(x -> x.join().stream()));
+  }
+
+  public static Stream<Issue> stream(WsClient client, Supplier<SearchRequest> requestFactory, String ruleKeyPrefix) {
+    return stream(client, requestFactory).filter(x -> x.getRule().startsWith(ruleKeyPrefix));
+  }
+}
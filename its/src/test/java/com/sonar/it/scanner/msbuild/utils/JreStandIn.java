@@ -0,0 +1,178 @@
+/*
+ * SonarScanner for .NET
+ * Copyright (C) 2016-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.it.scanner.msbuild.utils;
+
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.eclipse.jetty.proxy.ProxyServlet;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+
+/**
+ * Reverse proxy in front of a server that answers the {@code analysis/jres} endpoints itself, with a synthetic JRE archive of the
+ * requested size. Everything else is forwarded, so the begin step runs against the real server but provisions the synthetic JRE.
+ * <p>
+ * The archive is a zip of incompressible, seeded content stored without compression, so its download and extraction sizes are the
+ * same, and it is identical across runs.
+ */
+public class JreStandIn implements AutoCloseable {
+  public static final String JAVA_PATH = "bin/java.exe";
+  private static final String JRES_PATH = "/api/v2/analysis/jres";
+  private static final String JRE_ID = "synthetic";
+  private static final int ENTRY_SIZE = 1024 * 1024;
+
+  private final Server server = new Server();
+  private final String targetUrl;
+  private final Path archive;
+  private final String sha256;
+  private final AtomicInteger downloads = new AtomicInteger();
+  private volatile long downloadStart;
+  private volatile long downloadEnd;
+
+  public JreStandIn(String targetUrl, int archiveMegabytes, Path workDirectory) throws Exception {
+    this.targetUrl = targetUrl.replaceAll("/$", "");
+    this.archive = workDirectory.resolve("jre-synthetic-" + archiveMegabytes + "mb.zip");
+    this.sha256 = createArchive(archive, archiveMegabytes);
+    var connector = new ServerConnector(server);
+    connector.setHost("localhost");
+    connector.setPort(0);
+    server.addConnector(connector);
+    var context = new ServletContextHandler();
+    var holder = new ServletHolder(new JreServlet());
+    holder.setAsyncSupported(true);
+    context.addServlet(holder, "/*");
+    server.setHandler(context);
+    server.start();
+  }
+
+  public String url() {
+    return "http://localhost:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+  }
+
+  public long archiveSize() throws IOException {
+    return Files.size(archive);
+  }
+
+  /**
+   * @return how many times the archive was downloaded.
+   */
+  public int downloads() {
+    return downloads.get();
+  }
+
+  /**
+   * @return {@link System#nanoTime()} when the archive download was last requested, 0 when it was not.
+   */
+  public long downloadStart() {
+    return downloadStart;
+  }
+
+  /**
+   * @return {@link System#nanoTime()} when the last byte of the last archive download was written, 0 when it was not.
+   */
+  public long downloadEnd() {
+    return downloadEnd;
+  }
+
+  @Override
+  public void close() {
+    try {
+      server.stop();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (Exception e) {
+      throw new IllegalStateException("Unable to stop the JRE stand-in", e);
+    }
+  }
+
+  private static String createArchive(Path archive, int megabytes) throws IOException {
+    var random = new Random(megabytes);
+    var buffer = new byte[ENTRY_SIZE];
+    try (var digest = new DigestOutputStream(Files.newOutputStream(archive), sha256Digest());
+      var zip = new ZipOutputStream(digest)) {
+      zip.setLevel(Deflater.NO_COMPRESSION);
+      zip.putNextEntry(new ZipEntry(JAVA_PATH));
+      zip.closeEntry();
+      for (int i = 0; i < megabytes; i++) {
+        random.nextBytes(buffer);
+        zip.putNextEntry(new ZipEntry("lib/modules-" + i));
+        zip.write(buffer);
+        zip.closeEntry();
+      }
+      zip.finish();
+      return HexFormat.of().formatHex(digest.getMessageDigest().digest());
+    }
+  }
+
+  private static MessageDigest sha256Digest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private class JreServlet extends ProxyServlet {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected void service(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+      var path = request.getRequestURI();
+      if (path.equals(JRES_PATH)) {
+        response.setContentType("application/json");
+        response.getWriter().write(String.format("[{\"id\":\"%s\",\"filename\":\"%s\",\"sha256\":\"%s\",\"javaPath\":\"%s\",\"os\":\"%s\",\"arch\":\"%s\"}]",
+          JRE_ID, archive.getFileName(), sha256, JAVA_PATH, request.getParameter("os"), request.getParameter("arch")));
+      } else if (path.equals(JRES_PATH + "/" + JRE_ID)) {
+        downloads.incrementAndGet();
+        downloadStart = System.nanoTime();
+        response.setContentType("application/octet-stream");
+        response.setContentLengthLong(Files.size(archive));
+        try (OutputStream output = response.getOutputStream()) {
+          Files.copy(archive, output);
+          output.flush();
+        }
+        downloadEnd = System.nanoTime();
+      } else {
+        super.service(request, response);
+      }
+    }
+
+    @Override
+    protected String rewriteTarget(HttpServletRequest request) {
+      return targetUrl + request.getRequestURI() + (request.getQueryString() == null ? "" : "?" + request.getQueryString());
+    }
+  }
+}
@@ -0,0 +1,229 @@
+/*
+ * SonarScanner for .NET
+ * Copyright (C) 2016-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.it.scanner.msbuild.utils;
+
+import com.sonar.orchestrator.util.Command;
+import com.sonar.orchestrator.util.CommandException;
+import com.sonar.orchestrator.util.StreamConsumer;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.MatchResult;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import javax.annotation.CheckForNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Matches the output of a command line by line while the command runs, instead of searching the whole log once it has exited.
+ * <p>
+ * Expected patterns are checked off as they appear. Fatal patterns are opt-in, see {@link #failOn(List)}.
+ * <p>
+ * The process is started directly, with the executable and the arguments of the {@link Command}, and not through {@code cmd /c} as
+ * {@link com.sonar.orchestrator.util.CommandExecutor} does on Windows: the command must be an executable, not a script.
+ */
+public class LogMatcher implements StreamConsumer {
+  private static final Logger LOG = LoggerFactory.getLogger(LogMatcher.class);
+
+  /**
+   * Lines after which the scanner cannot succeed anymore.
+   */
+  public static final List<Pattern> SCANNER_FATAL = List.of(
+    Pattern.compile("Proxy Authentication Required|\\(407\\)"),
+    Pattern.compile("Authentication with the server has failed\\."),
+    Pattern.compile("EXECUTION FAILURE"));
+
+  private final StreamConsumer delegate;
+  private final Map<Pattern, MatchResult> expected = new LinkedHashMap<>();
+  private final List<Pattern> fatal = new ArrayList<>();
+  private int pending;
+  private String fatalLine;
+  private Process process;
+  private boolean sampleResources = ProcessTreeSampler.isEnabled();
+  private ProcessTreeSampler.ResourceUsage resourceUsage;
+
+  public LogMatcher(StreamConsumer delegate) {
+    this.delegate = delegate;
+  }
+
+  public LogMatcher expect(String literal) {
+    return expect(Pattern.compile(Pattern.quote(literal)));
+  }
+
+  public synchronized LogMatcher expect(Pattern pattern) {
+    expected.put(pattern, null);
+    pending++;
+    return this;
+  }
+
+  /**
+   * When one of the patterns appears, the command is doomed: its process tree is killed right away instead of waiting for it to
+   * fail on its own, or for the timeout. The output that would have followed, e.g. the other diagnostics of a build, is lost.
+   */
+  public synchronized LogMatcher failOn(List<Pattern> patterns) {
+    fatal.addAll(patterns);
+    return this;
+  }
+
+  /**
+   * Samples the resources of the process tree also when {@link ProcessTreeSampler sampling} is not enabled for the run, e.g. for a
+   * benchmark. Only the processes started by this command are sampled, not the ones of the tests running in parallel.
+   */
+  public synchronized LogMatcher sampleResources() {
+    sampleResources = true;
+    return this;
+  }
+
+  @Override
+  public synchronized void consumeLine(String line) {
+    delegate.consumeLine(line);
+    if (pending > 0) {
+      for (var entry : expected.entrySet()) {
+        if (entry.getValue() == null) {
+          var matcher = entry.getKey().matcher(line);
+          if (matcher.find()) {
+            entry.setValue(matcher.toMatchResult());
+            pending--;
+          }
+        }
+      }
+    }
+    if (fatalLine == null && fatal.stream().anyMatch(x -> x.matcher(line).find())) {
+      fatalLine = line;
+      LOG.warn("Fatal output, killing the process: {}", line);
+      kill();
+    }
+  }
+
+  public synchronized boolean isSatisfied() {
+    return pending == 0;
+  }
+
+  public synchronized List<Pattern> missing() {
+    return expected.entrySet().stream().filter(x -> x.getValue() == null).map(Map.Entry::getKey).collect(Collectors.toList());
+  }
+
+  /**
+   * @return the first match of an expected pattern, or null when it has not been seen (yet).
+   */
+  @CheckForNull
+  public synchronized MatchResult match(Pattern pattern) {
+    return expected.get(pattern);
+  }
+
+  /**
+   * @return the line that killed the process, or null.
+   */
+  @CheckForNull
+  public synchronized String fatalLine() {
+    return fatalLine;
+  }
+
+  /**
+   * @return the resources used by the process tree of the last {@link #execute} call, or null when it has not run or when
+   * its resources were not sampled, see {@link #sampleResources()}.
+   */
+  @CheckForNull
+  public synchronized ProcessTreeSampler.ResourceUsage resourceUsage() {
+    return resourceUsage;
+  }
+
+  /**
+   * Same contract as {@link com.sonar.orchestrator.util.CommandExecutor#execute(Command, StreamConsumer, long)}, with this matcher
+   * as consumer. The process is started here because the executor of Orchestrator does not give access to it, which also lets its
+   * resources be sampled.
+   */
+  public int execute(Command command, long timeoutMillis) {
+    ProcessTreeSampler sampler = null;
+    try {
+      var builder = new ProcessBuilder(commandLine(command)).redirectErrorStream(true);
+      if (command.getDirectory() != null) {
+        builder.directory(command.getDirectory());
+      }
+      builder.environment().putAll(command.getEnvironmentVariables());
+      synchronized (this) {
+        process = builder.start();
+        if (fatalLine != null) {
+          kill();
+        }
+        if (sampleResources) {
+          sampler = new ProcessTreeSampler(process.toHandle());
+        }
+      }
+      var gobbler = new Thread(() -> readLines(process), "log-matcher-" + process.pid());
+      gobbler.start();
+      if (!process.waitFor(timeoutMillis, TimeUnit.MILLISECONDS)) {
+        kill();
+        throw new CommandException(command, "Timeout exceeded: " + timeoutMillis + " ms", null);
+      }
+      gobbler.join();
+      return process.exitValue();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      kill();
+      throw new CommandException(command, e);
+    } catch (IOException e) {
+      throw new CommandException(command, e);
+    } finally {
+      if (sampler != null) {
+        sampler.close();
+        var usage = sampler.usage();
+        synchronized (this) {
+          resourceUsage = usage;
+        }
+        LOG.info("Resources used by {}: {}", command.getExecutable(), usage);
+      }
+    }
+  }
+
+  private void readLines(Process process) {
+    try (var reader = new BufferedReader(new InputStreamReader(process.getInputStream(), Charset.defaultCharset()))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        consumeLine(line);
+      }
+    } catch (IOException e) {
+      // The stream is closed when the process is killed
+      LOG.debug("Stopped reading the process output", e);
+    }
+  }
+
+  private synchronized void kill() {
+    if (process != null) {
+      process.descendants().forEach(ProcessHandle::destroyForcibly);
+      process.destroyForcibly();
+    }
+  }
+
+  private static List<String> commandLine(Command command) {
+    // ProcessBuilder quotes the arguments itself
+    var line = new ArrayList<String>();
+    line.add(command.getExecutable());
+    line.addAll(command.getArguments());
+    return line;
+  }
+}
@@ -0,0 +1,174 @@
+/*
+ * SonarScanner for .NET
+ * Copyright (C) 2016-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.it.scanner.msbuild.utils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Searches a log without scanning it once per assertion with a {@code (?s).*pattern.*} regex, which backtracks heavily on
+ * verbose logs.
+ * <p>
+ * The line offsets are indexed once. Regexes are searched line by line, and a set of literals is searched in a single pass over
+ * the log with an Aho-Corasick automaton.
+ */
+public class LogSearch {
+  private final String log;
+  private final int[] lineStarts;
+
+  private LogSearch(String log) {
+    this.log = log;
+    var starts = new ArrayList<Integer>();
+    starts.add(0);
+    for (int i = 0; i < log.length(); i++) {
+      if (log.charAt(i) == '\n') {
+        starts.add(i + 1);
+      }
+    }
+    lineStarts = starts.stream().mapToInt(Integer::intValue).toArray();
+  }
+
+  /**
+   * The index is not cached: it would keep the log of the last assertion alive, and indexing a log costs a single pass over it.
+   */
+  public static LogSearch of(String log) {
+    return new LogSearch(log);
+  }
+
+  public int lineCount() {
+    return lineStarts.length;
+  }
+
+  public String line(int index) {
+    int end = index + 1 < lineStarts.length ? lineStarts[index + 1] - 1 : log.length();
+    if (end > lineStarts[index] && log.charAt(end - 1) == '\r') {
+      end--;
+    }
+    return log.substring(lineStarts[index], end);
+  }
+
+  public boolean anyLineMatches(Pattern pattern) {
+    for (int i = 0; i < lineStarts.length; i++) {
+      if (pattern.matcher(line(i)).find()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return the literals that do not appear in the log, in the given order.
+   */
+  public List<String> missing(String... literals) {
+    var found = find(literals);
+    var missing = new ArrayList<String>();
+    for (int i = 0; i < literals.length; i++) {
+      if (!found.get(i)) {
+        missing.add(literals[i]);
+      }
+    }
+    return missing;
+  }
+
+  /**
+   * @return the literals that appear in the log, in the given order.
+   */
+  public List<String> present(String... literals) {
+    var found = find(literals);
+    var present = new ArrayList<String>();
+    for (int i = 0; i < literals.length; i++) {
+      if (found.get(i)) {
+        present.add(literals[i]);
+      }
+    }
+    return present;
+  }
+
+  private BitSet find(String... literals) {
+    var automaton = new Automaton(literals);
+    var found = new BitSet(literals.length);
+    int state = 0;
+    for (int i = 0; i < log.length() && found.cardinality() < literals.length; i++) {
+      state = automaton.next(state, log.charAt(i));
+      found.or(automaton.outputs.get(state));
+    }
+    // The empty string matches the root
+    found.or(automaton.outputs.get(0));
+    return found;
+  }
+
+  private static class Automaton {
+    private final List<Map<Character, Integer>> transitions = new ArrayList<>();
+    private final List<BitSet> outputs = new ArrayList<>();
+    private final List<Integer> failures = new ArrayList<>();
+
+    private Automaton(String... literals) {
+      addState();
+      for (int i = 0; i < literals.length; i++) {
+        int state = 0;
+        for (char c : literals[i].toCharArray()) {
+          var next = transitions.get(state).get(c);
+          if (next == null) {
+            next = addState();
+            transitions.get(state).put(c, next);
+          }
+          state = next;
+        }
+        outputs.get(state).set(i);
+      }
+      // Breadth-first, so that the failure of a state is computed before the ones of its children
+      var queue = new ArrayDeque<Integer>(transitions.get(0).values());
+      while (!queue.isEmpty()) {
+        int state = queue.poll();
+        for (var transition : transitions.get(state).entrySet()) {
+          int child = transition.getValue();
+          int failure = failures.get(state);
+          while (failure != 0 && !transitions.get(failure).containsKey(transition.getKey())) {
+            failure = failures.get(failure);
+          }
+          var target = transitions.get(failure).get(transition.getKey());
+          failures.set(child, target != null && target != child ? target : 0);
+          outputs.get(child).or(outputs.get(failures.get(child)));
+          queue.add(child);
+        }
+      }
+    }
+
+    private int addState() {
+      transitions.add(new HashMap<>());
+      outputs.add(new BitSet());
+      failures.add(0);
+      return transitions.size() - 1;
+    }
+
+    private int next(int state, char c) {
+      Integer next;
+      while ((next = transitions.get(state).get(c)) == null && state != 0) {
+        state = failures.get(state);
+      }
+      return next == null ? 0 : next;
+    }
+  }
+}
@@ -0,0 +1,61 @@
+/*
+ * SonarScanner for .NET
+ * Copyright (C) 2016-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.it.scanner.msbuild.utils;
+
+import com.sonar.orchestrator.util.StreamConsumer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.OptionalLong;
+
+/**
+ * Records when the first line containing each of the given markers was received. The scanner does not timestamp its logs, so
+ * this is how the duration of the steps it logs is measured from the outside.
+ */
+public class LogTimeline implements StreamConsumer {
+  // Marker -> System.nanoTime() of the first line containing it, 0 until then
+  private final Map<String, Long> arrivals = new LinkedHashMap<>();
+
+  public LogTimeline(String... markers) {
+    for (var marker : markers) {
+      arrivals.put(marker, 0L);
+    }
+  }
+
+  @Override
+  public synchronized void consumeLine(String line) {
+    var now = System.nanoTime();
+    for (var arrival : arrivals.entrySet()) {
+      if (arrival.getValue() == 0 && line.contains(arrival.getKey())) {
+        arrival.setValue(now);
+      }
+    }
+  }
+
+  /**
+   * @return {@link System#nanoTime()} when the first line containing the marker was received, empty when none was.
+   */
+  public synchronized OptionalLong arrival(String marker) {
+    var nanos = arrivals.get(marker);
+    if (nanos == null) {
+      throw new IllegalArgumentException("Not a marker of this timeline: " + marker);
+    }
+    return nanos == 0 ? OptionalLong.empty() : OptionalLong.of(nanos);
+  }
+}
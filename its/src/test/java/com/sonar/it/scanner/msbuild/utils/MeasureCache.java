@@ -0,0 +1,123 @@
+/*
+ * SonarScanner for .NET
+ * Copyright (C) 2016-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.it.scanner.msbuild.utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.CheckForNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonarqube.ws.Measures;
+import org.sonarqube.ws.client.HttpException;
+import org.sonarqube.ws.client.WsClient;
+import org.sonarqube.ws.client.measures.ComponentTreeRequest;
+
+/**
+ * Measures of the analyzed projects, fetched with one {@code api/measures/component_tree} request for the project and all its
+ * components instead of one {@code api/measures/component} request per measure.
+ * <p>
+ * The cache belongs to the current test and only holds the result of its last analysis: it is invalidated by each end step run
+ * with {@link TestUtils#executeBuild} or {@link ScannerCommand}, and after each test. Only the components of the projects registered in the {@link ProjectScope} are cached.
+ */
+public class MeasureCache {
+  private static final Logger LOG = LoggerFactory.getLogger(MeasureCache.class);
+  private static final List<String> DEFAULT_METRICS = List.of("ncloc", "lines", "files");
+  // Maximum page size of api/measures/component_tree
+  private static final int PAGE_SIZE = 500;
+  private static final ThreadLocal<MeasureCache> CURRENT = ThreadLocal.withInitial(MeasureCache::new);
+
+  // Project key -> measures of the project and its components
+  private final Map<String, ProjectMeasures> projects = new HashMap<>();
+
+  public static MeasureCache current() {
+    return CURRENT.get();
+  }
+
+  public static void invalidate() {
+    CURRENT.remove();
+  }
+
+  /**
+   * @return the measures of the component by metric key, or null when the component is not found in the tree of its project, or
+   * does not belong to a project of the current scope.
+   */
+  @CheckForNull
+  public Map<String, Measures.Measure> componentMeasures(WsClient client, String componentKey, String metricKey) {
+    var scope = ProjectScope.current();
+    var projectKey = scope == null ? null : scope.projectKeyOf(componentKey);
+    if (projectKey == null) {
+      return null;
+    }
+    var project = projects.get(projectKey);
+    if (project == null || !project.metricKeys.contains(metricKey)) {
+      var metricKeys = new LinkedHashSet<>(DEFAULT_METRICS);
+      if (project != null) {
+        metricKeys.addAll(project.metricKeys);
+      }
+      metricKeys.add(metricKey);
+      project = fetch(client, projectKey, metricKeys);
+      projects.put(projectKey, project);
+    }
+    return project.components.get(componentKey);
+  }
+
+  private static ProjectMeasures fetch(WsClient client, String projectKey, Set<String> metricKeys) {
+    var project = new ProjectMeasures(metricKeys);
+    try {
+      int page = 1;
+      Measures.ComponentTreeWsResponse response;
+      do {
+        response = client.measures().componentTree(new ComponentTreeRequest()
+          .setComponent(projectKey)
+          .setMetricKeys(new ArrayList<>(metricKeys))
+          .setP(Integer.toString(page))
+          .setPs(Integer.toString(PAGE_SIZE)));
+        if (page == 1) {
+          project.add(response.getBaseComponent());
+        }
+        response.getComponentsList().forEach(project::add);
+        page++;
+      } while ((long) response.getPaging().getPageIndex() * response.getPaging().getPageSize() < response.getPaging().getTotal());
+    } catch (HttpException e) {
+      // E.g. a registered project that was not analyzed: the measures are then requested component by component
+      LOG.info("Cannot get the component tree of {}: {}", projectKey, e.getMessage());
+    }
+    return project;
+  }
+
+  private static class ProjectMeasures {
+    private final Set<String> metricKeys;
+    private final Map<String, Map<String, Measures.Measure>> components = new HashMap<>();
+
+    private ProjectMeasures(Set<String> metricKeys) {
+      this.metricKeys = metricKeys;
+    }
+
+    private void add(Measures.Component component) {
+      var measures = new HashMap<String, Measures.Measure>();
+      component.getMeasuresList().forEach(x -> measures.put(x.getMetric(), x));
+      components.put(component.getKey(), measures);
+    }
+  }
+}
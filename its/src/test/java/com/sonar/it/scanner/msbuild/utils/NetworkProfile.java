@@ -0,0 +1,90 @@
+/*
+ * SonarScanner for .NET
+ * Copyright (C) 2016-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.it.scanner.msbuild.utils;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Network conditions applied by {@link ShapingProxy}: a delay before each request is forwarded, with a random jitter, and a cap on
+ * the throughput of the responses. Endpoints can have their own conditions, matched by path prefix.
+ * <p>
+ * Profiles are immutable, so that the shared ones can be refined per test with {@link #withEndpoint}.
+ */
+public class NetworkProfile {
+  public static final NetworkProfile LAN = new NetworkProfile("LAN", 0, 0, 0);
+  public static final NetworkProfile WAN = new NetworkProfile("WAN", 50, 20, 10 * 1024 * 1024);
+  public static final NetworkProfile SLOW = new NetworkProfile("SLOW", 300, 100, 1024 * 1024);
+
+  private final String name;
+  private final long delayMs;
+  private final long jitterMs;
+  // 0 when the throughput is not capped
+  private final long bytesPerSecond;
+  private final Map<String, NetworkProfile> endpoints;
+
+  public NetworkProfile(String name, long delayMs, long jitterMs, long bytesPerSecond) {
+    this(name, delayMs, jitterMs, bytesPerSecond, Map.of());
+  }
+
+  private NetworkProfile(String name, long delayMs, long jitterMs, long bytesPerSecond, Map<String, NetworkProfile> endpoints) {
+    this.name = name;
+    this.delayMs = delayMs;
+    this.jitterMs = jitterMs;
+    this.bytesPerSecond = bytesPerSecond;
+    this.endpoints = Collections.unmodifiableMap(endpoints);
+  }
+
+  /**
+   * @param pathPrefix e.g. {@code /api/plugins/download}, the first matching prefix applies.
+   * @return a copy of this profile with the conditions of the endpoint.
+   */
+  public NetworkProfile withEndpoint(String pathPrefix, NetworkProfile profile) {
+    var copy = new LinkedHashMap<>(endpoints);
+    copy.put(pathPrefix, profile);
+    return new NetworkProfile(name, delayMs, jitterMs, bytesPerSecond, copy);
+  }
+
+  NetworkProfile forPath(String path) {
+    return endpoints.entrySet().stream()
+      .filter(x -> path.startsWith(x.getKey()))
+      .map(Map.Entry::getValue)
+      .findFirst()
+      .orElse(this);
+  }
+
+  long nextDelayMs() {
+    return jitterMs == 0 ? delayMs : Math.max(0, delayMs + ThreadLocalRandom.current().nextLong(-jitterMs, jitterMs + 1));
+  }
+
+  /**
+   * @return how long the transfer of the given number of bytes takes at the capped throughput.
+   */
+  long transferMs(long bytes) {
+    return bytesPerSecond == 0 ? 0 : bytes * 1000 / bytesPerSecond;
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+}
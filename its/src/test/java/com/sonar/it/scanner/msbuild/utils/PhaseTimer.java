@@ -0,0 +1,122 @@
+/*
+ * SonarScanner for .NET
+ * Copyright (C) 2016-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.it.scanner.msbuild.utils;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+import javax.annotation.CheckForNull;
+
+/**
+ * Wall time spent by the current test in each phase: the steps of the analysis and the harness work around them. The phases are
+ * timed only when {@link #open()} was called for the current test, which {@link PhaseTimings} does.
+ * <p>
+ * When phases nest, e.g. the server calls made while waiting for the compute engine, the time goes to the outermost one.
+ */
+public class PhaseTimer {
+  private static final ThreadLocal<PhaseTimer> CURRENT = new ThreadLocal<>();
+
+  public enum Phase {
+    // Generation of the synthetic solutions, the first time each of them is used
+    GENERATE,
+    COPY,
+    SERVER_API,
+    BEGIN,
+    BUILD,
+    // Failed build attempts that were retried, and the waits before the next ones
+    BUILD_RETRY,
+    END,
+    CE_WAIT
+  }
+
+  private final AtomicLongArray nanos = new AtomicLongArray(Phase.values().length);
+  // Phase being timed by the thread of the test, if any
+  @CheckForNull
+  private Phase active;
+
+  public static PhaseTimer open() {
+    var timer = new PhaseTimer();
+    CURRENT.set(timer);
+    return timer;
+  }
+
+  @CheckForNull
+  public static PhaseTimer current() {
+    return CURRENT.get();
+  }
+
+  @CheckForNull
+  public static PhaseTimer close() {
+    var timer = CURRENT.get();
+    CURRENT.remove();
+    return timer;
+  }
+
+  /**
+   * Runs the action and adds its wall time to the phase of the current test, if any.
+   */
+  public static <T> T time(Phase phase, Supplier<T> action) {
+    var timer = CURRENT.get();
+    if (timer == null || timer.active != null) {
+      return action.get();
+    }
+    timer.active = phase;
+    long start = System.nanoTime();
+    try {
+      return action.get();
+    } finally {
+      timer.active = null;
+      timer.nanos.addAndGet(phase.ordinal(), System.nanoTime() - start);
+    }
+  }
+
+  public static void run(Phase phase, Runnable action) {
+    time(phase, () -> {
+      action.run();
+      return null;
+    });
+  }
+
+  /**
+   * Adds the time of an action measured by the caller to the phase of the current test, if any.
+   */
+  public static void record(Phase phase, long actionNanos) {
+    var timer = CURRENT.get();
+    if (timer != null && timer.active == null) {
+      timer.nanos.addAndGet(phase.ordinal(), actionNanos);
+    }
+  }
+
+  /**
+   * @return the wall time of the phases the test went through.
+   */
+  public Map<Phase, Long> millis() {
+    var result = new EnumMap<Phase, Long>(Phase.class);
+    for (var phase : Phase.values()) {
+      long phaseNanos = nanos.get(phase.ordinal());
+      if (phaseNanos > 0) {
+        result.put(phase, TimeUnit.NANOSECONDS.toMillis(phaseNanos));
+      }
+    }
+    return result;
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * SonarScanner for .NET
+ * Copyright (C) 2016-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.it.scanner.msbuild.utils;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+import com.sonar.it.scanner.msbuild.utils.PhaseTimer.Phase;
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import org.junit.jupiter.api.extension.AfterEachCallback;
+import org.junit.jupiter.api.extension.BeforeEachCallback;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records the wall time of the {@link Phase phases} of each test, writes them to one JSON report per run and, on demand, compares
+ * them with the report of a reference run.
+ * <p>
+ * The phases are timed by the harness: the scanner steps and the compute engine waits by {@link TestUtils#executeBuild} and
+ * {@link ScannerCommand}, the builds, fixture copies and project provisioning by {@link TestUtils}, and the web service calls by
+ * {@link WsClientPool}. What the tests run directly with Orchestrator is not timed.
+ * <ul>
+ *   <li>{@code -Dphase.timings.report}: where the report is written, {@code target/phase-timings.json} by default.</li>
+ *   <li>{@code -Dphase.timings.baseline}: the report of a reference run to compare with. Without it, nothing is compared.</li>
+ *   <li>{@code -Dphase.timings.tolerance}: how much slower than the baseline a phase may be, {@code 0.5} for 50% by default.</li>
+ * </ul>
+ * A phase slower than the baseline is logged as a warning: timings depend on the machine too much to fail the test.
+ */
+public class PhaseTimings implements BeforeEachCallback, AfterEachCallback {
+  private static final Logger LOG = LoggerFactory.getLogger(PhaseTimings.class);
+  private static final ExtensionContext.Namespace NAMESPACE = ExtensionContext.Namespace.create(PhaseTimings.class);
+  private static final Type REPORT_TYPE = new TypeToken<Map<String, Map<Phase, Long>>>() {
+  }.getType();
+  // Below this difference, a slower phase is noise rather than a regression
+  private static final long NOISE_MS = 2000;
+
+  @Override
+  public void beforeEach(ExtensionContext context) {
+    PhaseTimer.open();
+  }
+
+  @Override
+  public void afterEach(ExtensionContext context) {
+    var timer = PhaseTimer.close();
+    if (timer == null) {
+      return;
+    }
+    var test = testName(context);
+    var millis = timer.millis();
+    var report = context.getRoot().getStore(NAMESPACE).getOrComputeIfAbsent(Report.class, x -> new Report(), Report.class);
+    report.add(test, millis);
+    LOG.info("PHASE TIMINGS: {} {}", test, millis);
+
+    var regressions = new ArrayList<String>();
+    report.baseline.getOrDefault(test, Map.of()).forEach((phase, baselineMillis) -> {
+      if (phase == Phase.BUILD_RETRY) {
+        // Retries come from the machine, e.g. a locked file, not from the code under test
+        return;
+      }
+      long actual = millis.getOrDefault(phase, 0L);
+      if (actual > baselineMillis * (1 + report.tolerance) && actual - baselineMillis > NOISE_MS) {
+        regressions.add(String.format("%s took %d ms instead of %d ms", phase, actual, baselineMillis));
+      }
+    });
+    if (!regressions.isEmpty()) {
+      LOG.warn("PHASE TIMINGS: {} is slower than its baseline with a tolerance of {}%: {}", test, Math.round(report.tolerance * 100),
+        String.join(", ", regressions));
+    }
+  }
+
+  private static String testName(ExtensionContext context) {
+    var name = context.getRequiredTestClass().getSimpleName() + "." + context.getRequiredTestMethod().getName();
+    // Invocations of parameterized tests are named after their arguments
+    return context.getDisplayName().startsWith("[") ? name + " " + context.getDisplayName() : name;
+  }
+
+  private static class Report implements ExtensionContext.Store.CloseableResource {
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+
+    private final Map<String, Map<Phase, Long>> tests = new ConcurrentSkipListMap<>();
+    private final Map<String, Map<Phase, Long>> baseline = loadBaseline();
+    private final double tolerance = Double.parseDouble(System.getProperty("phase.timings.tolerance", "0.5"));
+
+    private void add(String test, Map<Phase, Long> millis) {
+      tests.put(test, millis);
+    }
+
+    @Override
+    public void close() throws IOException {
+      var path = Paths.get(System.getProperty("phase.timings.report", "target/phase-timings.json"));
+      Files.createDirectories(path.toAbsolutePath().getParent());
+      Files.writeString(path, GSON.toJson(tests, REPORT_TYPE));
+      LOG.info("Phase timings of {} tests written to {}", tests.size(), path.toAbsolutePath());
+    }
+
+    private static Map<String, Map<Phase, Long>> loadBaseline() {
+      var path = System.getProperty("phase.timings.baseline");
+      if (path == null) {
+        return Map.of();
+      }
+      try (Reader reader = Files.newBufferedReader(Path.of(path), StandardCharsets.UTF_8)) {
+        Map<String, Map<Phase, Long>> result = GSON.fromJson(reader, REPORT_TYPE);
+        return result == null ? Map.of() : result;
+      } catch (IOException e) {
+        throw new IllegalStateException("Unable to read the phase timings baseline", e);
+      }
+    }
+  }
+}
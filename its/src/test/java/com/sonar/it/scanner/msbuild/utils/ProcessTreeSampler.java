@@ -0,0 +1,247 @@
+/*
+ * SonarScanner for .NET
+ * Copyright (C) 2016-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.it.scanner.msbuild.utils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.apache.commons.lang.SystemUtils;
+
+/**
+ * Periodically samples the resources used by a process and its descendants: CPU time, resident memory, threads and I/O. The
+ * counters of the processes that exited are kept at their last sampled value, so a process living less than the interval is missed.
+ * <p>
+ * Linux reads {@code /proc/<pid>/status} and {@code /proc/<pid>/io}. Windows only gets the CPU time, and the resident memory of the
+ * whole tree from a single {@code tasklist} call per interval, shared by the samplers running at that time.
+ * <p>
+ * Sampling is opt-in with {@code -Dprocess.sampling=true}, or for a single command, see {@link LogMatcher#sampleResources()}.
+ */
+public class ProcessTreeSampler implements AutoCloseable {
+  private static final long INTERVAL_MS = 200;
+  // A Windows sample starts a tasklist process, which takes around 100 ms: with a single thread, the samplers of the test classes
+  // running in parallel would wait for each other. The fixed delay keeps a slow sample from being followed by a burst of them.
+  private static final ScheduledExecutorService SCHEDULER = Executors.newScheduledThreadPool(4, x -> {
+    var thread = new Thread(x, "its-process-tree-sampler");
+    thread.setDaemon(true);
+    return thread;
+  });
+  private static final boolean ENABLED = Boolean.getBoolean("process.sampling");
+  // Resident memory of all the processes by pid, from the last tasklist call
+  private static Map<Long, Long> residentBytes = Map.of();
+  private static long residentBytesNanos;
+
+  private final ProcessHandle root;
+  private final long startNanos = System.nanoTime();
+  private final List<Sample> samples = new ArrayList<>();
+  // Last counters of each process of the tree, including the ones that exited
+  private final Map<Long, Counters> counters = new HashMap<>();
+  private final ScheduledFuture<?> task;
+
+  public ProcessTreeSampler(ProcessHandle root) {
+    this.root = root;
+    this.task = SCHEDULER.scheduleWithFixedDelay(this::sample, 0, INTERVAL_MS, TimeUnit.MILLISECONDS);
+  }
+
+  public static boolean isEnabled() {
+    return ENABLED;
+  }
+
+  /**
+   * Stops sampling. The usage is the one of the last sample: the processes have usually exited when the sampler is closed.
+   */
+  @Override
+  public void close() {
+    task.cancel(false);
+  }
+
+  public synchronized ResourceUsage usage() {
+    return new ResourceUsage(startNanos, Duration.ofNanos(System.nanoTime() - startNanos), List.copyOf(samples));
+  }
+
+  private synchronized void sample() {
+    long rssBytes = 0;
+    int threads = 0;
+    var tree = Stream.concat(Stream.of(root), root.descendants()).filter(ProcessHandle::isAlive).collect(Collectors.toList());
+    var windowsResidentBytes = SystemUtils.IS_OS_WINDOWS ? windowsResidentBytes() : Map.<Long, Long>of();
+    for (var process : tree) {
+      var processCounters = counters.computeIfAbsent(process.pid(), x -> new Counters());
+      process.info().totalCpuDuration().ifPresent(x -> processCounters.cpuMillis = x.toMillis());
+      if (SystemUtils.IS_OS_LINUX) {
+        var status = procFields(process.pid(), "status");
+        rssBytes += kilobytes(status.get("VmRSS")) * 1024;
+        threads += (int) number(status.get("Threads"));
+        var io = procFields(process.pid(), "io");
+        // Characters read and written, including pipes and the page cache, as opposed to read_bytes and write_bytes
+        processCounters.readBytes = Math.max(processCounters.readBytes, number(io.get("rchar")));
+        processCounters.writtenBytes = Math.max(processCounters.writtenBytes, number(io.get("wchar")));
+      } else {
+        rssBytes += windowsResidentBytes.getOrDefault(process.pid(), 0L);
+      }
+    }
+    samples.add(new Sample(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos), tree.size(),
+      counters.values().stream().mapToLong(x -> x.cpuMillis).sum(),
+      rssBytes,
+      threads,
+      counters.values().stream().mapToLong(x -> x.readBytes).sum(),
+      counters.values().stream().mapToLong(x -> x.writtenBytes).sum()));
+  }
+
+  /**
+   * @return the resident memory of all the processes, by pid. The last result is reused by the samplers that run within the same
+   * interval.
+   */
+  private static synchronized Map<Long, Long> windowsResidentBytes() {
+    if (System.nanoTime() - residentBytesNanos >= TimeUnit.MILLISECONDS.toNanos(INTERVAL_MS / 2)) {
+      residentBytes = tasklist();
+      residentBytesNanos = System.nanoTime();
+    }
+    return residentBytes;
+  }
+
+  /**
+   * @return the resident memory of all the processes of the machine, by pid, empty when the call fails.
+   */
+  private static Map<Long, Long> tasklist() {
+    try {
+      var process = new ProcessBuilder("tasklist", "/FO", "CSV", "/NH").redirectErrorStream(true).start();
+      var result = new HashMap<Long, Long>();
+      try (var reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          // "SonarScanner.MSBuild.exe","1234","Console","1","45,120 K"
+          var columns = line.trim().split("\",\"");
+          if (columns.length >= 5 && columns[1].matches("\\d+")) {
+            result.put(Long.parseLong(columns[1]), Long.parseLong(columns[4].replaceAll("\\D", "")) * 1024);
+          }
+        }
+      }
+      return result;
+    } catch (IOException | NumberFormatException e) {
+      // The memory is then missing from the sample, as the one of a process that exited
+      return Map.of();
+    }
+  }
+
+  /**
+   * @return the {@code key: value} lines of a {@code /proc/<pid>} file, empty when the process exited in the meantime.
+   */
+  private static Map<String, String> procFields(long pid, String file) {
+    try {
+      return Files.readAllLines(Path.of("/proc", Long.toString(pid), file)).stream()
+        .map(x -> x.split(":", 2))
+        .filter(x -> x.length == 2)
+        .collect(Collectors.toMap(x -> x[0], x -> x[1].trim(), (x, y) -> x));
+    } catch (IOException e) {
+      return Map.of();
+    }
+  }
+
+  private static long kilobytes(String value) {
+    // e.g. "45120 kB"
+    return value == null ? 0 : number(value.replace("kB", "").trim());
+  }
+
+  private static long number(String value) {
+    try {
+      return value == null ? 0 : Long.parseLong(value);
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  private static class Counters {
+    private long cpuMillis;
+    private long readBytes;
+    private long writtenBytes;
+  }
+
+  /**
+   * The CPU time and the I/O are cumulated since the processes started, the elapsed time since the sampler started.
+   */
+  public record Sample(long elapsedMillis, int processes, long cpuMillis, long rssBytes, int threads, long readBytes, long writtenBytes) {
+  }
+
+  /**
+   * @param startNanos the {@link System#nanoTime()} at which the sampler started.
+   */
+  public record ResourceUsage(long startNanos, Duration wallTime, List<Sample> samples) {
+
+    public long cpuMillis() {
+      return last().map(Sample::cpuMillis).orElse(0L);
+    }
+
+    public long peakRssBytes() {
+      return samples.stream().mapToLong(Sample::rssBytes).max().orElse(0);
+    }
+
+    /**
+     * @return the highest resident memory sampled between the two {@link System#nanoTime()} values, 0 when no sample was taken.
+     */
+    public long peakRssBytes(long fromNanos, long toNanos) {
+      return samples.stream()
+        .filter(x -> startNanos + TimeUnit.MILLISECONDS.toNanos(x.elapsedMillis()) >= fromNanos
+          && startNanos + TimeUnit.MILLISECONDS.toNanos(x.elapsedMillis()) <= toNanos)
+        .mapToLong(Sample::rssBytes)
+        .max()
+        .orElse(0);
+    }
+
+    public int peakThreads() {
+      return samples.stream().mapToInt(Sample::threads).max().orElse(0);
+    }
+
+    public int peakProcesses() {
+      return samples.stream().mapToInt(Sample::processes).max().orElse(0);
+    }
+
+    public long readBytes() {
+      return last().map(Sample::readBytes).orElse(0L);
+    }
+
+    public long writtenBytes() {
+      return last().map(Sample::writtenBytes).orElse(0L);
+    }
+
+    private Optional<Sample> last() {
+      return samples.isEmpty() ? Optional.empty() : Optional.of(samples.get(samples.size() - 1));
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%d ms wall, %d ms CPU, peak RSS %d MB, peak %d threads in %d processes, %d MB read, %d MB written",
+        wallTime.toMillis(), cpuMillis(), peakRssBytes() / (1024 * 1024), peakThreads(), peakProcesses(), readBytes() / (1024 * 1024),
+        writtenBytes() / (1024 * 1024));
+    }
+  }
+}
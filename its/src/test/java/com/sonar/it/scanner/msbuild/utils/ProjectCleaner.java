@@ -0,0 +1,124 @@
+/*
+ * SonarScanner for .NET
+ * Copyright (C) 2016-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.it.scanner.msbuild.utils;
+
+import com.sonar.orchestrator.Orchestrator;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Deletes the projects of finished tests in the background, so that the next test does not wait for the server.
+ * <p>
+ * The queue is bounded: when too many deletions are pending, the test submitting a new one runs it itself.
+ * A project key must not be analyzed again while its deletion is pending, see {@link #awaitDeletion(Collection)}, which also reports
+ * a failed deletion when the key is reused.
+ */
+public class ProjectCleaner {
+  private static final Logger LOG = LoggerFactory.getLogger(ProjectCleaner.class);
+  private static final int MAX_QUEUED_DELETIONS = 8;
+
+  private static final ThreadPoolExecutor EXECUTOR = createExecutor();
+  private static final Map<String, CompletableFuture<Void>> PENDING = new ConcurrentHashMap<>();
+  // Projects that could not be deleted: provisioning them again would fail with an unrelated "key already exists"
+  private static final Map<String, Throwable> FAILED = new ConcurrentHashMap<>();
+
+  private ProjectCleaner() {
+  }
+
+  public static void deleteAsync(Orchestrator orchestrator, Collection<String> projectKeys) {
+    if (projectKeys.isEmpty()) {
+      return;
+    }
+    var keys = List.copyOf(projectKeys);
+    var deletion = new CompletableFuture<Void>();
+    // Register before submitting: the deletion can run on the calling thread when the queue is full.
+    for (var key : keys) {
+      PENDING.put(key, deletion);
+    }
+    deletion.whenComplete((result, exception) -> {
+      for (var key : keys) {
+        PENDING.remove(key, deletion);
+      }
+      if (exception != null) {
+        LOG.warn("TEST CLEANUP: failed to delete projects " + keys, exception);
+      }
+    });
+    EXECUTOR.execute(() -> {
+      // The failures are recorded before the deletion completes, for awaitDeletion to see them once it returns
+      try {
+        TestUtils.deleteProjects(orchestrator, keys);
+        keys.forEach(FAILED::remove);
+        deletion.complete(null);
+      } catch (Throwable e) {
+        // Also errors: the deletion must complete, or the next test using one of the keys would wait forever
+        keys.forEach(x -> FAILED.put(x, e));
+        deletion.completeExceptionally(e);
+      }
+    });
+  }
+
+  /**
+   * Waits for the pending deletions of the projects, before they are used again.
+   *
+   * @throws IllegalStateException when a project could not be deleted.
+   */
+  public static void awaitDeletion(Collection<String> projectKeys) {
+    awaitQuietly(projectKeys);
+    for (var key : projectKeys) {
+      var failure = FAILED.get(key);
+      if (failure != null) {
+        throw new IllegalStateException("Project " + key + " is still on the server, its deletion by a previous test failed", failure);
+      }
+    }
+  }
+
+  public static void awaitAll() {
+    awaitQuietly(new ArrayList<>(PENDING.keySet()));
+  }
+
+  private static void awaitQuietly(Collection<String> projectKeys) {
+    for (var key : projectKeys) {
+      var deletion = PENDING.get(key);
+      if (deletion != null) {
+        LOG.info("TEST SETUP: waiting for the deletion of project " + key);
+        deletion.exceptionally(e -> null).join();
+      }
+    }
+  }
+
+  private static ThreadPoolExecutor createExecutor() {
+    var executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, new ArrayBlockingQueue<>(MAX_QUEUED_DELETIONS), runnable -> {
+      var thread = new Thread(runnable, "its-project-cleaner");
+      thread.setDaemon(true);
+      return thread;
+    }, new ThreadPoolExecutor.CallerRunsPolicy());
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+}
@@ -0,0 +1,168 @@
+/*
+ * SonarScanner for .NET
+ * Copyright (C) 2016-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.it.scanner.msbuild.utils;
+
+import com.sonar.orchestrator.build.ScannerForMSBuild;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
+/**
+ * Project keys used by the test running on the current thread.
+ * <p>
+ * Test classes run concurrently against one shared server, so each class owns the keys its tests register
+ * until the test completes. Assertions and cleanup only look at the keys of the current scope.
+ * <p>
+ * A class scope is opened around the tests of a class, for the projects of {@code @BeforeAll} methods: the scope of each test
+ * is nested in it, and leaves the keys of the class alone.
+ */
+public class ProjectScope {
+  private static final ThreadLocal<ProjectScope> CURRENT = new ThreadLocal<>();
+  private static final Map<String, String> OWNERS = new ConcurrentHashMap<>();
+
+  private final String owner;
+  @Nullable
+  private final ProjectScope parent;
+  private final Set<String> keys = new LinkedHashSet<>();
+  // The project key of a scanner is usually set after TestUtils.newScanner returns. It is resolved by the next registration, so
+  // before the next scanner is created, i.e. before the end step creates the project on the server.
+  private final List<ScannerForMSBuild> pendingScanners = new ArrayList<>();
+
+  private ProjectScope(String owner, @Nullable ProjectScope parent) {
+    this.owner = owner;
+    this.parent = parent;
+  }
+
+  public static ProjectScope open(String owner) {
+    var scope = new ProjectScope(owner, CURRENT.get());
+    CURRENT.set(scope);
+    return scope;
+  }
+
+  @CheckForNull
+  public static ProjectScope current() {
+    return CURRENT.get();
+  }
+
+  public static void register(String projectKey) {
+    var scope = current();
+    if (scope != null) {
+      synchronized (scope) {
+        scope.resolvePendingScanners();
+        scope.add(projectKey);
+      }
+    }
+  }
+
+  public static void register(ScannerForMSBuild scanner) {
+    var scope = current();
+    if (scope != null) {
+      synchronized (scope) {
+        scope.resolvePendingScanners();
+        scope.pendingScanners.add(scanner);
+      }
+    }
+  }
+
+  public synchronized Set<String> keys() {
+    resolvePendingScanners();
+    return new LinkedHashSet<>(keys);
+  }
+
+  /**
+   * @return the key of the project of the component, among the keys of this scope and of its parent, or null when it is none of
+   * them. Component keys are prefixed by the key of their project and a colon, which a project key may contain as well: the longest
+   * matching key wins.
+   */
+  @CheckForNull
+  public String projectKeyOf(String componentKey) {
+    String result = null;
+    for (var scope = this; scope != null; scope = scope.parent) {
+      for (var key : scope.keys()) {
+        if ((componentKey.equals(key) || componentKey.startsWith(key + ":")) && (result == null || key.length() > result.length())) {
+          result = key;
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return the keys owned by this scope, without resolving the pending scanners.
+   */
+  public synchronized Set<String> ownedKeys() {
+    return new LinkedHashSet<>(keys);
+  }
+
+  /**
+   * Makes the parent scope current again and releases the keys of this scope, even when the last scanners use keys owned by
+   * another class: the {@link IllegalStateException} is thrown once the keys are released.
+   */
+  public synchronized void close() {
+    if (parent == null) {
+      CURRENT.remove();
+    } else {
+      CURRENT.set(parent);
+    }
+    try {
+      resolvePendingScanners();
+    } finally {
+      for (var key : keys) {
+        OWNERS.remove(key, owner);
+      }
+    }
+  }
+
+  private void resolvePendingScanners() {
+    IllegalStateException conflict = null;
+    for (var iterator = pendingScanners.iterator(); iterator.hasNext(); ) {
+      var projectKey = iterator.next().getProjectKey();
+      if (projectKey != null) {
+        iterator.remove();
+        try {
+          add(projectKey);
+        } catch (IllegalStateException e) {
+          conflict = conflict == null ? e : conflict;
+        }
+      }
+    }
+    if (conflict != null) {
+      throw conflict;
+    }
+  }
+
+  private void add(String projectKey) {
+    if (parent != null && parent.ownedKeys().contains(projectKey)) {
+      // Owned and cleaned up by the class
+      return;
+    }
+    var previousOwner = OWNERS.putIfAbsent(projectKey, owner);
+    if (previousOwner != null && !previousOwner.equals(owner)) {
+      throw new IllegalStateException("Project key '" + projectKey + "' is already used by " + previousOwner
+        + ". Test classes running in parallel must use distinct project keys.");
+    }
+    keys.add(projectKey);
+  }
+}
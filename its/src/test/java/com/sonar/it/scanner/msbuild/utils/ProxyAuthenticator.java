@@ -54,14 +54,59 @@ import org.eclipse.jetty.util.security.Constraint;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Inspired from {@link BasicAuthenticator} but adapted for proxy auth.
+ * <p>
+ * For load tests, validated {@code Proxy-Authorization} headers can be cached for a while, so that they are not decoded and
+ * logged in again on each request.
  */
 public class ProxyAuthenticator extends LoginAuthenticator {
+  private final int cacheSize;
+  private final long ttlNanos;
+  // Proxy-Authorization header -> user it was validated for
+  private final ConcurrentHashMap<String, CachedUser> cache = new ConcurrentHashMap<>();
+  private final LongAdder validations = new LongAdder();
+  private final LongAdder cacheHits = new LongAdder();
+  private final LongAdder validationNanos = new LongAdder();
+
   /* ------------------------------------------------------------ */
   public ProxyAuthenticator() {
+    this(0, Duration.ZERO);
+  }
+
+  /**
+   * @param cacheSize how many validated headers are cached at most, 0 to disable the cache.
+   * @param ttl how long a validated header is trusted.
+   */
+  public ProxyAuthenticator(int cacheSize, Duration ttl) {
+    this.cacheSize = cacheSize;
+    this.ttlNanos = ttl.toNanos();
+  }
+
+  /**
+   * @return how many requests had their credentials validated.
+   */
+  public long validations() {
+    return validations.sum();
+  }
+
+  /**
+   * @return how many validations were answered from the cache.
+   */
+  public long cacheHits() {
+    return cacheHits.sum();
+  }
+
+  /**
+   * @return the time spent validating credentials, in total.
+   */
+  public long validationNanos() {
+    return validationNanos.sum();
   }
 
   /* ------------------------------------------------------------ */
@@ -83,11 +128,18 @@ public class ProxyAuthenticator extends LoginAuthenticator {
     HttpServletResponse response = (HttpServletResponse) res;
     String credentials = request.getHeader(HttpHeader.PROXY_AUTHORIZATION.asString());
 
-    try {
-      if (!mandatory)
-        return new DeferredAuthentication(this);
+    if (!mandatory)
+      return new DeferredAuthentication(this);
 
+    long start = System.nanoTime();
+    try {
       if (credentials != null) {
+        UserIdentity cached = cached(credentials, start);
+        if (cached != null) {
+          cacheHits.increment();
+          return new UserAuthentication(getAuthMethod(), cached);
+        }
+        String header = credentials;
         int space = credentials.indexOf(' ');
         if (space > 0) {
           String method = credentials.substring(0, space);
@@ -101,6 +153,7 @@ public class ProxyAuthenticator extends LoginAuthenticator {
 
               UserIdentity user = login(username, password, request);
               if (user != null) {
+                cache(header, user, start);
                 return new UserAuthentication(getAuthMethod(), user);
               }
             }
@@ -116,7 +169,32 @@ public class ProxyAuthenticator extends LoginAuthenticator {
       return Authentication.SEND_CONTINUE;
     } catch (IOException e) {
       throw new ServerAuthException(e);
+    } finally {
+      validations.increment();
+      validationNanos.add(System.nanoTime() - start);
+    }
+  }
+
+  private UserIdentity cached(String header, long now) {
+    if (cacheSize == 0) {
+      return null;
     }
+    CachedUser cached = cache.get(header);
+    return cached == null || now - cached.expiry > 0 ? null : cached.user;
+  }
+
+  private void cache(String header, UserIdentity user, long now) {
+    if (cacheSize == 0) {
+      return;
+    }
+    if (cache.size() >= cacheSize) {
+      cache.values().removeIf(x -> now - x.expiry > 0);
+      if (cache.size() >= cacheSize) {
+        // Still full of valid entries, this header will be validated again next time
+        return;
+      }
+    }
+    cache.put(header, new CachedUser(user, now + ttlNanos));
   }
 
   @Override
@@ -124,4 +202,6 @@ public class ProxyAuthenticator extends LoginAuthenticator {
     return true;
   }
 
+  private record CachedUser(UserIdentity user, long expiry) {
+  }
 }
@@ -0,0 +1,201 @@
+/*
+ * SonarScanner for .NET
+ * Copyright (C) 2016-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.it.scanner.msbuild.utils;
+
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.eclipse.jetty.proxy.ProxyServlet;
+import org.eclipse.jetty.security.ConstraintMapping;
+import org.eclipse.jetty.security.ConstraintSecurityHandler;
+import org.eclipse.jetty.security.HashLoginService;
+import org.eclipse.jetty.security.SecurityHandler;
+import org.eclipse.jetty.security.UserStore;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.HandlerCollection;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHandler;
+import org.eclipse.jetty.util.security.Constraint;
+import org.eclipse.jetty.util.security.Credential;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+/**
+ * HTTP proxy started once and shared by the tests. Each test opens its own {@link Session}: a connector bound to a free port, with
+ * its own authentication requirement and {@link ProxyTraffic}, so that proxy scenarios can run concurrently.
+ */
+public class ProxyFixture implements AutoCloseable {
+  private static final String REALM = "Private!";
+
+  private final Server server;
+  private final ProxyAuthenticator authenticator;
+  // Connector -> session it belongs to
+  private final Map<Connector, Session> sessions = new ConcurrentHashMap<>();
+
+  public ProxyFixture(String user, String password) throws Exception {
+    this(user, password, new ProxyAuthenticator());
+  }
+
+  public ProxyFixture(String user, String password, ProxyAuthenticator authenticator) throws Exception {
+    this.authenticator = authenticator;
+    var threadPool = new QueuedThreadPool();
+    threadPool.setMaxThreads(500);
+    server = new Server(threadPool);
+    server.setHandler(new SessionRouter(proxyHandler(basicAuth(user, password, authenticator)), proxyHandler(null)));
+    server.start();
+  }
+
+  /**
+   * Binds a new connector to a free port, which avoids the race of looking for a free port first and binding it later.
+   */
+  public Session open(boolean requireAuthentication) throws Exception {
+    var httpConfig = new HttpConfiguration();
+    httpConfig.setSecureScheme("https");
+    httpConfig.setSendServerVersion(true);
+    httpConfig.setSendDateHeader(false);
+    var connector = new ServerConnector(server, new HttpConnectionFactory(httpConfig));
+    connector.setPort(0);
+    var session = new Session(connector, requireAuthentication);
+    connector.addBean(session.traffic);
+    sessions.put(connector, session);
+    server.addConnector(connector);
+    connector.start();
+    return session;
+  }
+
+  public ProxyAuthenticator authenticator() {
+    return authenticator;
+  }
+
+  @Override
+  public void close() {
+    try {
+      server.stop();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (Exception e) {
+      throw new IllegalStateException("Unable to stop the proxy", e);
+    }
+  }
+
+  public class Session implements AutoCloseable {
+    private final ServerConnector connector;
+    private final ProxyTraffic traffic = new ProxyTraffic();
+    private volatile boolean requireAuthentication;
+
+    private Session(ServerConnector connector, boolean requireAuthentication) {
+      this.connector = connector;
+      this.requireAuthentication = requireAuthentication;
+    }
+
+    public int port() {
+      return connector.getLocalPort();
+    }
+
+    public ProxyTraffic traffic() {
+      return traffic;
+    }
+
+    public void requireAuthentication(boolean requireAuthentication) {
+      this.requireAuthentication = requireAuthentication;
+    }
+
+    @Override
+    public void close() {
+      try {
+        connector.stop();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (Exception e) {
+        throw new IllegalStateException("Unable to stop the proxy session", e);
+      } finally {
+        server.removeConnector(connector);
+        sessions.remove(connector);
+      }
+    }
+  }
+
+  private static ServletContextHandler proxyHandler(SecurityHandler securityHandler) {
+    var contextHandler = new ServletContextHandler();
+    if (securityHandler != null) {
+      contextHandler.setSecurityHandler(securityHandler);
+    }
+    var servletHandler = new ServletHandler();
+    servletHandler.addServletWithMapping(ProxyServlet.class, "/*");
+    contextHandler.setServletHandler(servletHandler);
+    return contextHandler;
+  }
+
+  private static SecurityHandler basicAuth(String user, String password, ProxyAuthenticator authenticator) {
+    var userStore = new UserStore();
+    userStore.addUser(user, Credential.getCredential(password), new String[] {"user"});
+    var loginService = new HashLoginService();
+    loginService.setUserStore(userStore);
+    loginService.setName(REALM);
+
+    var constraint = new Constraint();
+    constraint.setName(Constraint.__BASIC_AUTH);
+    constraint.setRoles(new String[] {"user"});
+    constraint.setAuthenticate(true);
+    var mapping = new ConstraintMapping();
+    mapping.setConstraint(constraint);
+    mapping.setPathSpec("/*");
+
+    var securityHandler = new ConstraintSecurityHandler();
+    securityHandler.setAuthenticator(authenticator);
+    securityHandler.setRealmName("myrealm");
+    securityHandler.addConstraintMapping(mapping);
+    securityHandler.setLoginService(loginService);
+    return securityHandler;
+  }
+
+  /**
+   * Hands each request to the authenticated or the open proxy, depending on the session of the connector it was received on.
+   */
+  private class SessionRouter extends HandlerCollection {
+    private final Handler authenticated;
+    private final Handler open;
+
+    private SessionRouter(Handler authenticated, Handler open) {
+      super(authenticated, open);
+      this.authenticated = authenticated;
+      this.open = open;
+    }
+
+    @Override
+    public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
+      var session = sessions.get(baseRequest.getHttpChannel().getConnector());
+      if (session == null) {
+        response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        baseRequest.setHandled(true);
+      } else {
+        (session.requireAuthentication ? authenticated : open).handle(target, baseRequest, request, response);
+      }
+    }
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * SonarScanner for .NET
+ * Copyright (C) 2016-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.it.scanner.msbuild.utils;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.CheckForNull;
+import org.eclipse.jetty.server.HttpChannel;
+import org.eclipse.jetty.server.Request;
+
+/**
+ * Records each exchange going through a Jetty connector: bytes of content in and out, latency, status and whether the connection
+ * was reused. Register it as a bean of the connector, e.g. the one of a proxy, to assert the round-trips and transfer volume of a
+ * whole analysis.
+ */
+public class ProxyTraffic implements HttpChannel.Listener {
+  private static final String EXCHANGE_ATTRIBUTE = ProxyTraffic.class.getName() + ".exchange";
+
+  private final ConcurrentLinkedQueue<Exchange> exchanges = new ConcurrentLinkedQueue<>();
+
+  public List<Exchange> exchanges() {
+    return List.copyOf(exchanges);
+  }
+
+  public List<String> uris() {
+    return exchanges.stream().map(Exchange::uri).toList();
+  }
+
+  /**
+   * @return how many connections the clients opened, the other exchanges reused one of them.
+   */
+  public long connections() {
+    return exchanges.stream().filter(x -> !x.reusedConnection()).count();
+  }
+
+  public long bytesIn() {
+    return exchanges.stream().mapToLong(Exchange::bytesIn).sum();
+  }
+
+  public long bytesOut() {
+    return exchanges.stream().mapToLong(Exchange::bytesOut).sum();
+  }
+
+  public void clear() {
+    exchanges.clear();
+  }
+
+  public String summary() {
+    return String.format("%d exchanges over %d connections, %d KB in, %d KB out, %d ms in total", exchanges.size(), connections(), bytesIn() / 1024,
+      bytesOut() / 1024, exchanges.stream().mapToLong(Exchange::latencyMillis).sum());
+  }
+
+  @Override
+  public void onRequestBegin(Request request) {
+    // An HTTP/1.1 channel lives as long as its connection, and counts the requests it served
+    request.setAttribute(EXCHANGE_ATTRIBUTE, new Counters(System.nanoTime(), request.getHttpChannel().getRequests() > 1));
+  }
+
+  @Override
+  public void onRequestContent(Request request, ByteBuffer content) {
+    var counters = counters(request);
+    if (counters != null) {
+      counters.bytesIn += content.remaining();
+    }
+  }
+
+  @Override
+  public void onResponseContent(Request request, ByteBuffer content) {
+    var counters = counters(request);
+    if (counters != null) {
+      counters.bytesOut += content.remaining();
+    }
+  }
+
+  @Override
+  public void onComplete(Request request) {
+    var counters = counters(request);
+    if (counters == null) {
+      // The request failed before it began, e.g. it could not be parsed
+      return;
+    }
+    exchanges.add(new Exchange(request.getMethod(), request.getRequestURI(), request.getResponse().getStatus(), counters.bytesIn, counters.bytesOut,
+      TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - counters.start), counters.reusedConnection));
+  }
+
+  @CheckForNull
+  private static Counters counters(Request request) {
+    return (Counters) request.getAttribute(EXCHANGE_ATTRIBUTE);
+  }
+
+  public record Exchange(String method, String uri, int status, long bytesIn, long bytesOut, long latencyMillis, boolean reusedConnection) {
+  }
+
+  // The callbacks of an exchange are not concurrent, the counters do not need to be atomic
+  private static class Counters {
+    private final long start;
+    private final boolean reusedConnection;
+    private long bytesIn;
+    private long bytesOut;
+
+    private Counters(long start, boolean reusedConnection) {
+      this.start = start;
+      this.reusedConnection = reusedConnection;
+    }
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * SonarScanner for .NET
+ * Copyright (C) 2016-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.it.scanner.msbuild.utils;
+
+import com.sonar.it.scanner.msbuild.utils.PhaseTimer.Phase;
+import com.sonar.orchestrator.util.Command;
+import com.sonar.orchestrator.util.StreamConsumer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Runs the scanner of the build directory without Orchestrator, e.g. against a {@link StandInServer}.
+ */
+public class ScannerCommand {
+  private static final Path BUILD_DIRECTORY = Paths.get("..", "build");
+
+  private ScannerCommand() {
+  }
+
+  public static Command begin(ScannerClassifier classifier, Path projectDir, String hostUrl, String token, String projectKey, String... properties) {
+    var command = create(classifier, projectDir)
+      .addArgument("begin")
+      .addArgument("/k:" + projectKey)
+      .addArgument("/d:sonar.host.url=" + hostUrl)
+      .addArgument("/d:sonar.token=" + token);
+    for (var property : properties) {
+      command.addArgument("/d:" + property);
+    }
+    return command;
+  }
+
+  public static Command end(ScannerClassifier classifier, Path projectDir, String token) {
+    return create(classifier, projectDir)
+      .addArgument("end")
+      .addArgument("/d:sonar.token=" + token);
+  }
+
+  public static SpooledBuildResult execute(Command command, long timeoutMillis) {
+    return execute(command, timeoutMillis, line -> {
+    });
+  }
+
+  /**
+   * @param observer receives each line of the logs as soon as it is written, e.g. a {@link LogTimeline}.
+   */
+  public static SpooledBuildResult execute(Command command, long timeoutMillis, StreamConsumer observer) {
+    return execute(command, timeoutMillis, observer, false);
+  }
+
+  public static SpooledBuildResult measure(Command command, long timeoutMillis) {
+    return measure(command, timeoutMillis, line -> {
+    });
+  }
+
+  /**
+   * Same as {@link #execute(Command, long, StreamConsumer)}, also sampling the resources of the process tree of the scanner when
+   * {@link ProcessTreeSampler sampling} is not enabled for the run. The usage is the single one of
+   * {@link SpooledBuildResult#getResourceUsages()}.
+   */
+  public static SpooledBuildResult measure(Command command, long timeoutMillis, StreamConsumer observer) {
+    return execute(command, timeoutMillis, observer, true);
+  }
+
+  private static SpooledBuildResult execute(Command command, long timeoutMillis, StreamConsumer observer, boolean sampleResources) {
+    var result = new SpooledBuildResult();
+    var logs = new StreamConsumer.Pipe(result.getLogsWriter());
+    var matcher = new LogMatcher(line -> {
+      observer.consumeLine(line);
+      logs.consumeLine(line);
+    }).failOn(LogMatcher.SCANNER_FATAL);
+    if (sampleResources) {
+      matcher.sampleResources();
+    }
+    int status;
+    if (command.getArguments().contains("end")) {
+      status = PhaseTimer.time(Phase.END, () -> matcher.execute(command, timeoutMillis));
+      MeasureCache.invalidate();
+    } else if (command.getArguments().contains("begin")) {
+      status = PhaseTimer.time(Phase.BEGIN, () -> matcher.execute(command, timeoutMillis));
+    } else {
+      status = matcher.execute(command, timeoutMillis);
+    }
+    result.addStatus(status);
+    result.addResourceUsage(matcher.resourceUsage());
+    return result.complete();
+  }
+
+  private static Command create(ScannerClassifier classifier, Path projectDir) {
+    var scannerDirectory = BUILD_DIRECTORY.resolve("sonarscanner-" + classifier).toAbsolutePath();
+    var command = classifier.isDotNetCore()
+      ? Command.create("dotnet").addArgument(scannerDirectory.resolve("SonarScanner.MSBuild.dll").toString())
+      : Command.create(scannerDirectory.resolve("SonarScanner.MSBuild.exe").toString());
+    return command.setDirectory(projectDir.toFile());
+  }
+}
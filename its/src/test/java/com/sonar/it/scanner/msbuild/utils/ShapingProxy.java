@@ -0,0 +1,181 @@
+/*
+ * SonarScanner for .NET
+ * Copyright (C) 2016-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.it.scanner.msbuild.utils;
+
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.proxy.ProxyServlet;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.Callback;
+
+/**
+ * Reverse proxy in front of a server, applying the delay, jitter and throughput cap of a {@link NetworkProfile}. Scanners reach
+ * the server through it by overriding {@code sonar.host.url} with {@link #url()}.
+ * <p>
+ * The time spent on each endpoint, from the reception of the request to the end of the response, is accounted for, so that the
+ * duration of a step can be attributed to the endpoints it called.
+ */
+public class ShapingProxy implements AutoCloseable {
+  private static final String START_ATTRIBUTE = ShapingProxy.class.getName() + ".start";
+
+  private final Server server = new Server();
+  private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(x -> {
+    var thread = new Thread(x, "its-shaping-proxy");
+    thread.setDaemon(true);
+    return thread;
+  });
+  // Endpoint path -> accounting
+  private final Map<String, EndpointStats> stats = new ConcurrentHashMap<>();
+  private final String targetUrl;
+  private final NetworkProfile profile;
+
+  public ShapingProxy(String targetUrl, NetworkProfile profile) throws Exception {
+    this.targetUrl = targetUrl.replaceAll("/$", "");
+    this.profile = profile;
+    var connector = new ServerConnector(server);
+    connector.setHost("localhost");
+    connector.setPort(0);
+    server.addConnector(connector);
+    var context = new ServletContextHandler();
+    var holder = new ServletHolder(new ShapingServlet());
+    holder.setAsyncSupported(true);
+    context.addServlet(holder, "/*");
+    server.setHandler(context);
+    server.start();
+  }
+
+  public String url() {
+    return "http://localhost:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+  }
+
+  /**
+   * @return the time accounted to each endpoint since the last call, from the most expensive one, relative to the wall time of
+   * the step that called them.
+   */
+  public String report(String step, long wallTimeMs) {
+    var snapshot = Map.copyOf(stats);
+    stats.clear();
+    var lines = snapshot.entrySet().stream()
+      .sorted(Comparator.comparingLong((Map.Entry<String, EndpointStats> x) -> x.getValue().nanos.get()).reversed())
+      .map(x -> {
+        long ms = x.getValue().nanos.get() / 1_000_000;
+        return String.format("  %s: %d calls, %d ms (%d%%), %d KB", x.getKey(), x.getValue().calls.get(), ms, wallTimeMs == 0 ? 0 : ms * 100 / wallTimeMs,
+          x.getValue().bytes.get() / 1024);
+      })
+      .collect(Collectors.joining("\n"));
+    return step + " with network profile " + profile + " took " + wallTimeMs + " ms\n" + lines;
+  }
+
+  @Override
+  public void close() {
+    try {
+      server.stop();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (Exception e) {
+      throw new IllegalStateException("Unable to stop the shaping proxy", e);
+    } finally {
+      scheduler.shutdownNow();
+    }
+  }
+
+  private static class EndpointStats {
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong nanos = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+  }
+
+  private EndpointStats stats(HttpServletRequest request) {
+    return stats.computeIfAbsent(request.getRequestURI(), x -> new EndpointStats());
+  }
+
+  private class ShapingServlet extends ProxyServlet {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected void service(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+      request.setAttribute(START_ATTRIBUTE, System.nanoTime());
+      stats(request).calls.incrementAndGet();
+      try {
+        Thread.sleep(profile.forPath(request.getRequestURI()).nextDelayMs());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new ServletException(e);
+      }
+      super.service(request, response);
+    }
+
+    @Override
+    protected String rewriteTarget(HttpServletRequest request) {
+      return targetUrl + request.getRequestURI() + (request.getQueryString() == null ? "" : "?" + request.getQueryString());
+    }
+
+    @Override
+    protected void onResponseContent(HttpServletRequest request, HttpServletResponse response, Response proxyResponse, byte[] buffer, int offset, int length,
+      Callback callback) {
+      stats(request).bytes.addAndGet(length);
+      long transferMs = profile.forPath(request.getRequestURI()).transferMs(length);
+      if (transferMs == 0) {
+        super.onResponseContent(request, response, proxyResponse, buffer, offset, length, callback);
+      } else {
+        // The buffer is only valid until the callback completes, the write is just postponed
+        scheduler.schedule(() -> writeContent(request, response, proxyResponse, buffer, offset, length, callback), transferMs, TimeUnit.MILLISECONDS);
+      }
+    }
+
+    private void writeContent(HttpServletRequest request, HttpServletResponse response, Response proxyResponse, byte[] buffer, int offset, int length,
+      Callback callback) {
+      super.onResponseContent(request, response, proxyResponse, buffer, offset, length, callback);
+    }
+
+    @Override
+    protected void onProxyResponseSuccess(HttpServletRequest clientRequest, HttpServletResponse proxyResponse, Response serverResponse) {
+      account(clientRequest);
+      super.onProxyResponseSuccess(clientRequest, proxyResponse, serverResponse);
+    }
+
+    @Override
+    protected void onProxyResponseFailure(HttpServletRequest clientRequest, HttpServletResponse proxyResponse, Response serverResponse, Throwable failure) {
+      account(clientRequest);
+      super.onProxyResponseFailure(clientRequest, proxyResponse, serverResponse, failure);
+    }
+
+    private void account(HttpServletRequest request) {
+      var start = (Long) request.getAttribute(START_ATTRIBUTE);
+      if (start != null) {
+        stats(request).nanos.addAndGet(System.nanoTime() - start);
+      }
+    }
+  }
+}
@@ -0,0 +1,259 @@
+/*
+ * SonarScanner for .NET
+ * Copyright (C) 2016-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.it.scanner.msbuild.utils;
+
+import com.sonar.orchestrator.build.BuildResult;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.ref.SoftReference;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import javax.annotation.Nullable;
+
+/**
+ * A {@link BuildResult} that spools the logs to a temporary file instead of keeping them in a {@link java.io.StringWriter}: only
+ * the last {@value #TAIL_SIZE} characters stay on the heap.
+ * <p>
+ * {@link #getLogsLines(Predicate)} streams the file and only keeps the matching lines. {@link #getLogs()} still returns the whole
+ * logs as a String, for the assertions that need it: once the build is {@link #complete() complete}, it is decoded once and only
+ * softly referenced, so that the consecutive assertions on a result share it without pinning it on the heap.
+ * <p>
+ * The file is deleted by {@link #deleteAll()} at the end of the test that created it, or by {@link #delete()}. A result created
+ * outside of a test, see {@link #open()}, must be deleted by its creator.
+ */
+public class SpooledBuildResult extends BuildResult {
+  private static final int TAIL_SIZE = 64 * 1024;
+  // Inherited by the threads started by the test, e.g. the executor of concurrent scanner steps, which then add their results to
+  // the ones of the test
+  private static final InheritableThreadLocal<Owner> CURRENT = new InheritableThreadLocal<>();
+
+  private final Path file;
+  private final SpoolWriter writer;
+  @Nullable
+  private final Owner owner;
+  private final List<ProcessTreeSampler.ResourceUsage> resourceUsages = new ArrayList<>();
+  private volatile boolean complete;
+  private SoftReference<String> logs = new SoftReference<>(null);
+
+  public SpooledBuildResult() {
+    try {
+      file = Files.createTempFile("its-build-", ".log");
+      writer = new SpoolWriter(new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file), StandardCharsets.UTF_8)));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    owner = CURRENT.get();
+    if (owner != null) {
+      owner.results.add(this);
+    }
+  }
+
+  /**
+   * Collects the results created from now on by the current thread and the threads it starts, e.g. at the start of a test. The
+   * results collected before, e.g. by the {@code @BeforeAll} methods of the class, are collected again after {@link #deleteAll()}.
+   */
+  public static void open() {
+    CURRENT.set(new Owner(CURRENT.get()));
+  }
+
+  /**
+   * Deletes the files of the results collected since the last {@link #open()}, e.g. at the end of a test.
+   */
+  public static void deleteAll() {
+    var current = CURRENT.get();
+    if (current == null) {
+      return;
+    }
+    if (current.parent == null) {
+      CURRENT.remove();
+    } else {
+      CURRENT.set(current.parent);
+    }
+    for (var result : current.results) {
+      result.deleteFile();
+    }
+    current.results.clear();
+  }
+
+  @Override
+  public Writer getLogsWriter() {
+    return writer;
+  }
+
+  public File getLogsFile() {
+    return file.toFile();
+  }
+
+  /**
+   * Closes the logs writer, once the last command of the build finished. Nothing can be written to the logs afterward.
+   */
+  public SpooledBuildResult complete() {
+    try {
+      writer.close();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    complete = true;
+    return this;
+  }
+
+  /**
+   * Deletes the logs file before the end of the test, when the result is not returned to it.
+   */
+  public void delete() {
+    if (owner != null) {
+      owner.results.remove(this);
+    }
+    deleteFile();
+  }
+
+  private void deleteFile() {
+    try {
+      writer.close();
+      Files.deleteIfExists(file);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Adds the resources used by a command of this build, along with its {@link #addStatus status}. Nothing is added when the
+   * command did not run.
+   */
+  public SpooledBuildResult addResourceUsage(@Nullable ProcessTreeSampler.ResourceUsage usage) {
+    if (usage != null) {
+      resourceUsages.add(usage);
+    }
+    return this;
+  }
+
+  /**
+   * @return the resources used by each command of this build, in the order they ran.
+   */
+  public List<ProcessTreeSampler.ResourceUsage> getResourceUsages() {
+    return resourceUsages;
+  }
+
+  /**
+   * @return the end of the logs, which is kept in memory.
+   */
+  public String getTail() {
+    synchronized (writer.tail) {
+      return writer.tail.length() > TAIL_SIZE ? writer.tail.substring(writer.tail.length() - TAIL_SIZE) : writer.tail.toString();
+    }
+  }
+
+  @Override
+  public String getLogs() {
+    var result = logs.get();
+    if (result == null) {
+      try {
+        writer.flush();
+        result = Files.readString(file, StandardCharsets.UTF_8);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      // While the build runs, the logs are still growing
+      if (complete) {
+        logs = new SoftReference<>(result);
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public List<String> getLogsLines(Predicate<String> linePredicate) {
+    var lines = new ArrayList<String>();
+    try {
+      writer.flush();
+      try (var reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          if (linePredicate.test(line)) {
+            lines.add(line);
+          }
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return lines;
+  }
+
+  private static class Owner {
+    @Nullable
+    private final Owner parent;
+    private final Set<SpooledBuildResult> results = ConcurrentHashMap.newKeySet();
+
+    private Owner(@Nullable Owner parent) {
+      this.parent = parent;
+    }
+  }
+
+  private static class SpoolWriter extends Writer {
+    private final Writer out;
+    private final StringBuilder tail = new StringBuilder();
+    private boolean closed;
+
+    private SpoolWriter(Writer out) {
+      this.out = out;
+    }
+
+    @Override
+    public void write(char[] buffer, int offset, int length) throws IOException {
+      synchronized (tail) {
+        out.write(buffer, offset, length);
+        tail.append(buffer, offset, length);
+        // Trimmed by chunks, not on each write
+        if (tail.length() > 2 * TAIL_SIZE) {
+          tail.delete(0, tail.length() - TAIL_SIZE);
+        }
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      synchronized (tail) {
+        // The logs are read back after the build completed
+        if (!closed) {
+          out.flush();
+        }
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      synchronized (tail) {
+        closed = true;
+        out.close();
+      }
+    }
+  }
+}
@@ -0,0 +1,365 @@
+/*
+ * SonarScanner for .NET
+ * Copyright (C) 2016-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.it.scanner.msbuild.utils;
+
+import com.google.gson.JsonObject;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.proxy.ProxyServlet;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.Callback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonarqube.ws.Ce;
+
+/**
+ * Stands in for the web API of a server, so that begin and end steps can be run without starting a server.
+ * <p>
+ * The responses are recorded from a real server with {@link #record}: each exchange is saved in the fixture directory as a
+ * {@code NNNN.properties} file (method, path, query, status and headers) and a {@code NNNN.body} file. {@link #replay} serves
+ * them back, matching the method, path and query. A request whose query was not recorded gets the response recorded for the same
+ * method and path, or a 404 when there is none: both are listed by {@link #misses()}.
+ * <p>
+ * When replaying, the Compute Engine is simulated: the reports sent to {@code api/ce/submit} are kept in the given directory, and
+ * their task is immediately successful in {@code api/ce/task}.
+ */
+public class StandInServer implements AutoCloseable {
+  private static final Logger LOG = LoggerFactory.getLogger(StandInServer.class);
+  private static final String PROTOBUF = "application/x-protobuf";
+
+  private final Server server;
+  private final Path fixtures;
+  @Nullable
+  private final Path reportsDirectory;
+  private final List<Exchange> exchanges = new ArrayList<>();
+  private final List<String> misses = new CopyOnWriteArrayList<>();
+  // Task id -> submitted report
+  private final Map<String, Path> reports = new ConcurrentHashMap<>();
+
+  private StandInServer(Path fixtures, @Nullable Path reportsDirectory) {
+    this.fixtures = fixtures;
+    this.reportsDirectory = reportsDirectory;
+    this.server = new Server();
+  }
+
+  private StandInServer start(HttpServlet servlet) throws Exception {
+    var connector = new ServerConnector(server);
+    connector.setHost("localhost");
+    connector.setPort(0);
+    server.addConnector(connector);
+    var context = new ServletContextHandler();
+    var holder = new ServletHolder(servlet);
+    holder.setAsyncSupported(true);
+    context.addServlet(holder, "/*");
+    server.setHandler(context);
+    server.start();
+    return this;
+  }
+
+  /**
+   * @param reportsDirectory where the submitted reports are written, e.g. a temporary directory of the test: not the fixture
+   * directory, which is checked in.
+   */
+  public static StandInServer replay(Path fixtures, Path reportsDirectory) throws Exception {
+    var standIn = new StandInServer(fixtures, reportsDirectory);
+    standIn.loadExchanges();
+    standIn.start(standIn.new ReplayServlet());
+    LOG.info("TEST SETUP: replaying {} exchanges of {} at {}", standIn.exchanges.size(), fixtures, standIn.url());
+    return standIn;
+  }
+
+  /**
+   * Forwards the requests to the target server and saves the exchanges in the fixture directory.
+   */
+  public static StandInServer record(String targetUrl, Path fixtures) throws Exception {
+    Files.createDirectories(fixtures);
+    var standIn = new StandInServer(fixtures, null).start(new RecordingServlet(targetUrl.replaceAll("/$", ""), fixtures));
+    LOG.info("TEST SETUP: recording exchanges with {} to {} at {}", targetUrl, fixtures, standIn.url());
+    return standIn;
+  }
+
+  public String url() {
+    return "http://localhost:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+  }
+
+  /**
+   * @return the requests that had no recorded response, including the ones answered with the response of another query.
+   */
+  public List<String> misses() {
+    return List.copyOf(misses);
+  }
+
+  /**
+   * @return the analysis reports submitted to the Compute Engine.
+   */
+  public List<Path> reports() {
+    return List.copyOf(reports.values());
+  }
+
+  @Override
+  public void close() {
+    try {
+      server.stop();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (Exception e) {
+      throw new IllegalStateException("Unable to stop the stand-in server", e);
+    }
+  }
+
+  private void loadExchanges() throws IOException {
+    List<Path> files;
+    try (var stream = Files.list(fixtures)) {
+      files = stream.filter(x -> x.getFileName().toString().endsWith(".properties")).sorted().collect(Collectors.toList());
+    }
+    for (var file : files) {
+      var properties = new Properties();
+      try (var reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+        properties.load(reader);
+      }
+      var name = file.getFileName().toString();
+      exchanges.add(new Exchange(properties, file.resolveSibling(name.substring(0, name.length() - ".properties".length()) + ".body")));
+    }
+  }
+
+  @CheckForNull
+  private Exchange find(String method, String path, @Nullable String query) {
+    Exchange samePath = null;
+    for (var exchange : exchanges) {
+      if (exchange.method.equals(method) && exchange.path.equals(path)) {
+        if (Objects.equals(exchange.query, query)) {
+          return exchange;
+        }
+        samePath = samePath == null ? exchange : samePath;
+      }
+    }
+    return samePath;
+  }
+
+  private static class Exchange {
+    private final String method;
+    private final String path;
+    private final String query;
+    private final int status;
+    private final String contentType;
+    private final String contentEncoding;
+    private final Path body;
+
+    private Exchange(Properties properties, Path body) {
+      this.method = properties.getProperty("method");
+      this.path = properties.getProperty("path");
+      this.query = properties.getProperty("query");
+      this.status = Integer.parseInt(properties.getProperty("status"));
+      this.contentType = properties.getProperty("contentType");
+      this.contentEncoding = properties.getProperty("contentEncoding");
+      this.body = body;
+    }
+  }
+
+  private class ReplayServlet extends HttpServlet {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected void service(HttpServletRequest request, HttpServletResponse response) throws IOException {
+      var path = request.getRequestURI();
+      if (path.endsWith("/api/ce/submit")) {
+        submit(request, response);
+      } else if (path.endsWith("/api/ce/task")) {
+        task(request, response);
+      } else {
+        var query = request.getQueryString();
+        var exchange = find(request.getMethod(), path, query);
+        var miss = request.getMethod() + " " + path + (query == null ? "" : "?" + query);
+        if (exchange == null) {
+          LOG.warn("No recorded response for {}", miss);
+          misses.add(miss);
+          response.sendError(HttpServletResponse.SC_NOT_FOUND);
+          return;
+        } else if (!Objects.equals(exchange.query, query)) {
+          LOG.warn("No recorded response for {}, replaying the one of query {}", miss, exchange.query);
+          misses.add(miss);
+        }
+        response.setStatus(exchange.status);
+        if (exchange.contentType != null) {
+          response.setContentType(exchange.contentType);
+        }
+        if (exchange.contentEncoding != null) {
+          response.setHeader(HttpHeader.CONTENT_ENCODING.asString(), exchange.contentEncoding);
+        }
+        response.setContentLengthLong(Files.size(exchange.body));
+        try (var out = response.getOutputStream()) {
+          Files.copy(exchange.body, out);
+        }
+      }
+    }
+
+    private void submit(HttpServletRequest request, HttpServletResponse response) throws IOException {
+      var taskId = UUID.randomUUID().toString();
+      var report = Files.createDirectories(reportsDirectory).resolve(taskId + ".bin");
+      try (InputStream in = request.getInputStream()) {
+        Files.copy(in, report);
+      }
+      reports.put(taskId, report);
+      if (acceptsProtobuf(request)) {
+        write(response, Ce.SubmitResponse.newBuilder().setTaskId(taskId).setProjectId(taskId).build().toByteArray());
+      } else {
+        var json = new JsonObject();
+        json.addProperty("taskId", taskId);
+        write(response, json);
+      }
+    }
+
+    private void task(HttpServletRequest request, HttpServletResponse response) throws IOException {
+      var taskId = request.getParameter("id");
+      if (taskId == null || !reports.containsKey(taskId)) {
+        response.sendError(HttpServletResponse.SC_NOT_FOUND);
+      } else if (acceptsProtobuf(request)) {
+        write(response, Ce.TaskResponse.newBuilder()
+          .setTask(Ce.Task.newBuilder().setId(taskId).setType("REPORT").setStatus(Ce.TaskStatus.SUCCESS))
+          .build()
+          .toByteArray());
+      } else {
+        var task = new JsonObject();
+        task.addProperty("id", taskId);
+        task.addProperty("type", "REPORT");
+        task.addProperty("status", "SUCCESS");
+        var json = new JsonObject();
+        json.add("task", task);
+        write(response, json);
+      }
+    }
+
+    private static boolean acceptsProtobuf(HttpServletRequest request) {
+      var accept = request.getHeader(HttpHeader.ACCEPT.asString());
+      return accept != null && accept.contains(PROTOBUF);
+    }
+
+    private static void write(HttpServletResponse response, byte[] protobuf) throws IOException {
+      response.setContentType(PROTOBUF);
+      write(response.getOutputStream(), protobuf);
+    }
+
+    private static void write(HttpServletResponse response, JsonObject json) throws IOException {
+      response.setContentType("application/json");
+      write(response.getOutputStream(), json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void write(OutputStream out, byte[] bytes) throws IOException {
+      try (out) {
+        out.write(bytes);
+      }
+    }
+  }
+
+  private static class RecordingServlet extends ProxyServlet {
+    private static final long serialVersionUID = 1L;
+    private static final String BODY_ATTRIBUTE = RecordingServlet.class.getName() + ".body";
+
+    private final String targetUrl;
+    private final Path fixtures;
+    private final AtomicInteger count = new AtomicInteger();
+
+    private RecordingServlet(String targetUrl, Path fixtures) {
+      this.targetUrl = targetUrl;
+      this.fixtures = fixtures;
+    }
+
+    @Override
+    protected String rewriteTarget(HttpServletRequest request) {
+      return targetUrl + request.getRequestURI() + (request.getQueryString() == null ? "" : "?" + request.getQueryString());
+    }
+
+    @Override
+    protected void sendProxyRequest(HttpServletRequest clientRequest, HttpServletResponse proxyResponse, Request proxyRequest) {
+      // Recorded bodies are easier to inspect, and to edit, when they are not compressed
+      proxyRequest.headers(x -> x.remove(HttpHeader.ACCEPT_ENCODING));
+      super.sendProxyRequest(clientRequest, proxyResponse, proxyRequest);
+    }
+
+    @Override
+    protected void onResponseContent(HttpServletRequest request, HttpServletResponse response, Response proxyResponse, byte[] buffer, int offset, int length,
+      Callback callback) {
+      var body = (ByteArrayOutputStream) request.getAttribute(BODY_ATTRIBUTE);
+      if (body == null) {
+        body = new ByteArrayOutputStream();
+        request.setAttribute(BODY_ATTRIBUTE, body);
+      }
+      body.write(buffer, offset, length);
+      super.onResponseContent(request, response, proxyResponse, buffer, offset, length, callback);
+    }
+
+    @Override
+    protected void onProxyResponseSuccess(HttpServletRequest clientRequest, HttpServletResponse proxyResponse, Response serverResponse) {
+      var name = String.format("%04d", count.incrementAndGet());
+      var properties = new Properties();
+      properties.setProperty("method", clientRequest.getMethod());
+      properties.setProperty("path", clientRequest.getRequestURI());
+      if (clientRequest.getQueryString() != null) {
+        properties.setProperty("query", clientRequest.getQueryString());
+      }
+      properties.setProperty("status", Integer.toString(serverResponse.getStatus()));
+      var contentType = serverResponse.getHeaders().get(HttpHeader.CONTENT_TYPE);
+      if (contentType != null) {
+        properties.setProperty("contentType", contentType);
+      }
+      var contentEncoding = serverResponse.getHeaders().get(HttpHeader.CONTENT_ENCODING);
+      if (contentEncoding != null) {
+        properties.setProperty("contentEncoding", contentEncoding);
+      }
+      var body = (ByteArrayOutputStream) clientRequest.getAttribute(BODY_ATTRIBUTE);
+      try {
+        try (var writer = Files.newBufferedWriter(fixtures.resolve(name + ".properties"), StandardCharsets.UTF_8)) {
+          properties.store(writer, null);
+        }
+        Files.write(fixtures.resolve(name + ".body"), body == null ? new byte[0] : body.toByteArray());
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      super.onProxyResponseSuccess(clientRequest, proxyResponse, serverResponse);
+    }
+  }
+}
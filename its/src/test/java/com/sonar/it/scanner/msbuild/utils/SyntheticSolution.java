@@ -0,0 +1,325 @@
+/*
+ * SonarScanner for .NET
+ * Copyright (C) 2016-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.it.scanner.msbuild.utils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.UUID;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A solution generated from a seed, for the tests that measure how the scanner scales with the size of the solution. It is
+ * materialized like the fixtures of the {@code projects} folder with {@link TestUtils#projectDir(Path, SyntheticSolution, String...)}.
+ * <p>
+ * The solution {@value #SOLUTION_FILE} holds SDK-style C# projects: product projects under {@code src}, each referencing some of the
+ * product projects before it, and test projects under {@code tests}, each referencing the product project before it. Files of the
+ * {@code Shared} folder are linked into several product projects. The same parameters always give the same files.
+ */
+public class SyntheticSolution {
+  public static final String SOLUTION_FILE = "Synthetic.sln";
+  private static final Logger LOG = LoggerFactory.getLogger(SyntheticSolution.class);
+  private static final Path GENERATED_ROOT = Paths.get("target", "synthetic");
+  // To be increased when the generated files change, so that the solutions generated by previous runs are not reused
+  private static final int FORMAT = 1;
+  private static final String CSHARP_PROJECT_TYPE = "{9A19103F-16F7-4668-BE54-9A1E7A4F7556}";
+  private static final int MAX_PROJECTS_PER_SHARED_FILE = 4;
+
+  private final int projectCount;
+  private int filesPerProject = 10;
+  private int referencesPerProject = 2;
+  private double testProjectRatio = 0.2;
+  private int sharedFiles = 0;
+  private long seed = 42;
+
+  private SyntheticSolution(int projectCount) {
+    this.projectCount = projectCount;
+  }
+
+  public static SyntheticSolution of(int projectCount) {
+    if (projectCount < 1) {
+      throw new IllegalArgumentException("A solution has at least one project: " + projectCount);
+    }
+    return new SyntheticSolution(projectCount);
+  }
+
+  public SyntheticSolution withFilesPerProject(int filesPerProject) {
+    this.filesPerProject = filesPerProject;
+    return this;
+  }
+
+  /**
+   * @param referencesPerProject the maximum number of product projects referenced by a product project, fewer for the first ones.
+   */
+  public SyntheticSolution withReferencesPerProject(int referencesPerProject) {
+    this.referencesPerProject = referencesPerProject;
+    return this;
+  }
+
+  /**
+   * @param testProjectRatio the share of the projects that are test projects, between 0 inclusive and 1 exclusive.
+   */
+  public SyntheticSolution withTestProjectRatio(double testProjectRatio) {
+    if (testProjectRatio < 0 || testProjectRatio >= 1) {
+      throw new IllegalArgumentException("The test project ratio must be in [0, 1): " + testProjectRatio);
+    }
+    this.testProjectRatio = testProjectRatio;
+    return this;
+  }
+
+  public SyntheticSolution withSharedFiles(int sharedFiles) {
+    this.sharedFiles = sharedFiles;
+    return this;
+  }
+
+  public SyntheticSolution withSeed(long seed) {
+    this.seed = seed;
+    return this;
+  }
+
+  public int projectCount() {
+    return projectCount;
+  }
+
+  /**
+   * @return the name of the fixture, which identifies the generated files.
+   */
+  public String name() {
+    return String.format(Locale.ROOT, "Synthetic-%dp-%df-%dr-%dt-%ds-%d", projectCount, filesPerProject, referencesPerProject,
+      Math.round(testProjectRatio * 100), sharedFiles, seed);
+  }
+
+  @Override
+  public String toString() {
+    return name();
+  }
+
+  /**
+   * Generates the solution under {@code target/synthetic}, unless a previous run already did.
+   *
+   * @return the directory of the solution.
+   */
+  Path generate() throws IOException {
+    // Tests running in parallel can use the same solution
+    synchronized (SyntheticSolution.class) {
+      return generateOnce();
+    }
+  }
+
+  private Path generateOnce() throws IOException {
+    var root = GENERATED_ROOT.resolve(name());
+    var marker = GENERATED_ROOT.resolve(name() + ".generated");
+    if (Files.exists(marker) && Files.readString(marker).equals(String.valueOf(FORMAT))) {
+      return root;
+    }
+    long start = System.nanoTime();
+    Files.deleteIfExists(marker);
+    FileUtils.deleteDirectory(root.toFile());
+    var projects = layout();
+    try (var solution = writer(root.resolve(SOLUTION_FILE))) {
+      writeSolutionHeader(solution);
+      for (var project : projects) {
+        writeProject(root, project, projects);
+        solution.write(String.format("Project(\"%s\") = \"%s\", \"%s\", \"%s\"\r\nEndProject\r\n", CSHARP_PROJECT_TYPE, project.name,
+          project.path().replace('/', '\\'), project.guid));
+      }
+      writeSolutionFooter(solution, projects);
+    }
+    for (int i = 0; i < sharedFiles; i++) {
+      try (var file = writer(root.resolve("Shared").resolve(sharedName(i) + ".cs"))) {
+        writeSharedClass(file, i);
+      }
+    }
+    Files.writeString(marker, String.valueOf(FORMAT));
+    LOG.info("TEST SETUP: generated solution {} in {} ms", name(), (System.nanoTime() - start) / 1_000_000);
+    return root;
+  }
+
+  /**
+   * Draws the projects, their references, shared files and sizes, so that the files can then be written one by one.
+   */
+  private List<Project> layout() {
+    var random = new Random(seed);
+    var projects = new ArrayList<Project>(projectCount);
+    var products = new ArrayList<Project>();
+    for (int i = 0; i < projectCount; i++) {
+      // Spreads the test projects evenly, the first project is always a product
+      boolean test = Math.floor((i + 1) * testProjectRatio) > Math.floor(i * testProjectRatio);
+      var project = new Project(String.format(Locale.ROOT, "Project%04d", i + 1), test, new UUID(random.nextLong(), random.nextLong()));
+      if (test) {
+        project.references.add(products.get(products.size() - 1));
+      } else {
+        var candidates = new ArrayList<>(products);
+        for (int r = 0; r < referencesPerProject && !candidates.isEmpty(); r++) {
+          project.references.add(candidates.remove(random.nextInt(candidates.size())));
+        }
+        products.add(project);
+      }
+      for (int f = 0; f < filesPerProject; f++) {
+        project.methodCounts.add(1 + random.nextInt(8));
+      }
+      projects.add(project);
+    }
+    for (int i = 0; i < sharedFiles; i++) {
+      var candidates = new ArrayList<>(products);
+      int count = Math.min(candidates.size(), 2 + random.nextInt(MAX_PROJECTS_PER_SHARED_FILE - 1));
+      for (int p = 0; p < count; p++) {
+        candidates.remove(random.nextInt(candidates.size())).sharedFiles.add(i);
+      }
+    }
+    return projects;
+  }
+
+  private static void writeSolutionHeader(BufferedWriter solution) throws IOException {
+    solution.write("\r\nMicrosoft Visual Studio Solution File, Format Version 12.00\r\n"
+      + "# Visual Studio Version 17\r\n"
+      + "VisualStudioVersion = 17.4.33015.44\r\n"
+      + "MinimumVisualStudioVersion = 10.0.40219.1\r\n");
+  }
+
+  private static void writeSolutionFooter(BufferedWriter solution, List<Project> projects) throws IOException {
+    solution.write("Global\r\n"
+      + "\tGlobalSection(SolutionConfigurationPlatforms) = preSolution\r\n"
+      + "\t\tDebug|Any CPU = Debug|Any CPU\r\n"
+      + "\t\tRelease|Any CPU = Release|Any CPU\r\n"
+      + "\tEndGlobalSection\r\n"
+      + "\tGlobalSection(ProjectConfigurationPlatforms) = postSolution\r\n");
+    for (var project : projects) {
+      for (var configuration : List.of("Debug", "Release")) {
+        solution.write(String.format("\t\t%s.%s|Any CPU.ActiveCfg = %2$s|Any CPU\r\n", project.guid, configuration));
+        solution.write(String.format("\t\t%s.%s|Any CPU.Build.0 = %2$s|Any CPU\r\n", project.guid, configuration));
+      }
+    }
+    solution.write("\tEndGlobalSection\r\n"
+      + "\tGlobalSection(SolutionProperties) = preSolution\r\n"
+      + "\t\tHideSolutionNode = FALSE\r\n"
+      + "\tEndGlobalSection\r\n"
+      + "EndGlobal\r\n");
+  }
+
+  private void writeProject(Path root, Project project, List<Project> projects) throws IOException {
+    var directory = root.resolve(project.directory());
+    try (var csproj = writer(directory.resolve(project.name + ".csproj"))) {
+      csproj.write("<Project Sdk=\"Microsoft.NET.Sdk\">\n"
+        + "  <PropertyGroup>\n"
+        + "    <TargetFramework>net8.0</TargetFramework>\n");
+      if (project.test) {
+        // Marks the project as a test project without pulling test frameworks from NuGet
+        csproj.write("    <SonarQubeTestProject>true</SonarQubeTestProject>\n");
+      }
+      csproj.write("  </PropertyGroup>\n");
+      if (!project.references.isEmpty()) {
+        csproj.write("  <ItemGroup>\n");
+        for (var reference : project.references) {
+          csproj.write("    <ProjectReference Include=\"..\\..\\" + reference.path().replace('/', '\\') + "\" />\n");
+        }
+        csproj.write("  </ItemGroup>\n");
+      }
+      if (!project.sharedFiles.isEmpty()) {
+        csproj.write("  <ItemGroup>\n");
+        for (var shared : project.sharedFiles) {
+          csproj.write("    <Compile Include=\"..\\..\\Shared\\" + sharedName(shared) + ".cs\" Link=\"Shared\\" + sharedName(shared) + ".cs\" />\n");
+        }
+        csproj.write("  </ItemGroup>\n");
+      }
+      csproj.write("</Project>\n");
+    }
+    for (int i = 0; i < project.methodCounts.size(); i++) {
+      try (var file = writer(directory.resolve(String.format(Locale.ROOT, "Class%04d.cs", i + 1)))) {
+        writeClass(file, project, i);
+      }
+    }
+  }
+
+  private static void writeClass(BufferedWriter file, Project project, int index) throws IOException {
+    var className = String.format(Locale.ROOT, "Class%04d", index + 1);
+    file.write("namespace " + project.name + "\n{\n");
+    file.write("    public class " + className + "\n    {\n");
+    file.write("        private readonly int factor = " + (index + 2) + ";\n");
+    int methods = project.methodCounts.get(index);
+    for (int m = 0; m < methods; m++) {
+      file.write("\n        public int Compute" + m + "(int value)\n        {\n");
+      file.write("            var result = value * factor + " + m + ";\n");
+      file.write("            if (result > 1000)\n            {\n                result %= 97;\n            }\n");
+      if (m == 0 && index == 0) {
+        for (var reference : project.references) {
+          file.write("            result += new " + reference.name + ".Class0001().Compute0(value);\n");
+        }
+        for (var shared : project.sharedFiles) {
+          file.write("            result += Shared." + sharedName(shared) + ".Value(value);\n");
+        }
+      }
+      if (m == methods - 1 && index % 5 == 0) {
+        file.write("            // TODO: remove the magic numbers\n");
+      }
+      file.write("            return result;\n        }\n");
+    }
+    file.write("    }\n}\n");
+  }
+
+  private static void writeSharedClass(BufferedWriter file, int index) throws IOException {
+    file.write("namespace Shared\n{\n");
+    file.write("    internal static class " + sharedName(index) + "\n    {\n");
+    file.write("        public static int Value(int value) => value + " + index + ";\n");
+    file.write("    }\n}\n");
+  }
+
+  private static String sharedName(int index) {
+    return String.format(Locale.ROOT, "Shared%04d", index + 1);
+  }
+
+  private static BufferedWriter writer(Path file) throws IOException {
+    Files.createDirectories(file.getParent());
+    return Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+  }
+
+  private static class Project {
+    private final String name;
+    private final boolean test;
+    private final String guid;
+    private final List<Project> references = new ArrayList<>();
+    private final List<Integer> sharedFiles = new ArrayList<>();
+    // Number of methods of each file
+    private final List<Integer> methodCounts = new ArrayList<>();
+
+    private Project(String name, boolean test, UUID guid) {
+      this.name = name;
+      this.test = test;
+      this.guid = "{" + guid.toString().toUpperCase(Locale.ROOT) + "}";
+    }
+
+    private String directory() {
+      return (test ? "tests/" : "src/") + name;
+    }
+
+    private String path() {
+      return directory() + "/" + name + ".csproj";
+    }
+  }
+}
@@ -19,9 +19,12 @@
  */
 package com.sonar.it.scanner.msbuild.utils;
 
+import com.sonar.it.scanner.msbuild.utils.PhaseTimer.Phase;
 import com.sonar.orchestrator.Orchestrator;
+import com.sonar.orchestrator.build.Build;
 import com.sonar.orchestrator.build.BuildResult;
 import com.sonar.orchestrator.build.ScannerForMSBuild;
+import com.sonar.orchestrator.build.SynchronousAnalyzer;
 import com.sonar.orchestrator.http.HttpMethod;
 import com.sonar.orchestrator.locator.Location;
 import com.sonar.orchestrator.locator.MavenLocation;
@@ -34,13 +37,15 @@ import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.text.SimpleDateFormat;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Date;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import javax.annotation.CheckForNull;
 import javax.annotation.Nullable;
@@ -51,11 +56,10 @@ import org.sonarqube.ws.Ce;
 import org.sonarqube.ws.Components;
 import org.sonarqube.ws.Issues.Issue;
 import org.sonarqube.ws.Measures;
-import org.sonarqube.ws.client.HttpConnector;
 import org.sonarqube.ws.client.WsClient;
-import org.sonarqube.ws.client.WsClientFactories;
 import org.sonarqube.ws.client.ce.TaskRequest;
 import org.sonarqube.ws.client.components.TreeRequest;
+import org.sonarqube.ws.client.issues.SearchRequest;
 import org.sonarqube.ws.client.measures.ComponentRequest;
 import org.sonarqube.ws.client.settings.SetRequest;
 import org.sonarqube.ws.client.usertokens.GenerateRequest;
@@ -65,8 +69,10 @@ import static org.assertj.core.api.Assertions.assertThat;
 public class TestUtils {
   final static Logger LOG = LoggerFactory.getLogger(TestUtils.class);
 
-  private static final int MSBUILD_RETRY = 3;
+  private static final BuildRetryPolicy MSBUILD_RETRY_POLICY = new BuildRetryPolicy(3, Duration.ofSeconds(2));
   private static final String NUGET_PATH = "NUGET_PATH";
+  // A line terminator, or an escape matching one, that is not preceded by another backslash
+  private static final Pattern MULTILINE_PATTERN = Pattern.compile("[\\r\\n]|(?<!\\\\)\\\\[nrR]");
   private static String token = null;
 
   public static final Long TIMEOUT_LIMIT = 60 * 1000L;
@@ -109,6 +115,8 @@ public class TestUtils {
   }
 
   public static ScannerForMSBuild newScannerBegin(Orchestrator orchestrator, String projectKeyName, Path projectDir, String token, ScannerClassifier classifier) {
+    ProjectCleaner.awaitDeletion(List.of(projectKeyName));
+    ProjectScope.register(projectKeyName);
     return TestUtils.newScanner(orchestrator, projectDir, classifier, token)
       .addArgument("begin")
       .setProjectKey(projectKeyName)
@@ -137,6 +145,7 @@ public class TestUtils {
     }
     LOG.info("Scanner location: " + scannerLocation);
     var scanner = ScannerForMSBuild.create(projectDir.toFile()).setScannerLocation(scannerLocation).setUseDotNetCore(classifier.isDotNetCore());
+    ProjectScope.register(scanner);
     if (orchestrator.getServer().version().isGreaterThanOrEquals(10, 0)) {
       // The `sonar.token` property was introduced in SonarQube 10.0
       scanner.setProperty("sonar.token", token);
@@ -146,18 +155,65 @@ public class TestUtils {
     return scanner;
   }
 
-  public static void reset(Orchestrator orchestrator) {
-    // The expected format is yyyy-MM-ddTHH:mm:ss+HHmm. e.g. 2017-10-19T13:00:00+0200
-    SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ");
-    String currentDateTime = formatter.format(new Date());
+  public static void provisionProject(Orchestrator orchestrator, String projectKey, String projectName) {
+    ProjectCleaner.awaitDeletion(List.of(projectKey));
+    ProjectScope.register(projectKey);
+    PhaseTimer.run(Phase.SERVER_API, () -> orchestrator.getServer().provisionProject(projectKey, projectName));
+  }
+
+  public static void restoreProfile(Orchestrator orchestrator, Location backup) {
+    PhaseTimer.run(Phase.SERVER_API, () -> orchestrator.getServer().restoreProfile(backup));
+  }
+
+  public static void associateProjectToQualityProfile(Orchestrator orchestrator, String projectKey, String language, String profileName) {
+    PhaseTimer.run(Phase.SERVER_API, () -> orchestrator.getServer().associateProjectToQualityProfile(projectKey, language, profileName));
+  }
+
+  /**
+   * Runs a build with Orchestrator, timing the scanner step and, after an end step, the wait for the Compute Engine. The measures
+   * of the previous analysis are invalidated by an end step. A begin step first waits for the pending deletion of its project.
+   */
+  public static BuildResult executeBuild(Orchestrator orchestrator, Build<?> build) {
+    return executeBuild(orchestrator, build, false);
+  }
+
+  /**
+   * Same as {@link #executeBuild(Orchestrator, Build)}, without failing when the build fails.
+   */
+  public static BuildResult executeBuildQuietly(Orchestrator orchestrator, Build<?> build) {
+    return executeBuild(orchestrator, build, true);
+  }
+
+  private static BuildResult executeBuild(Orchestrator orchestrator, Build<?> build, boolean quietly) {
+    var arguments = build.arguments();
+    if (arguments.contains("end")) {
+      // Orchestrator is asked not to wait for the Compute Engine, so that the wait is timed on its own
+      var result = PhaseTimer.time(Phase.END, () -> quietly ? orchestrator.executeBuildQuietly(build, false) : orchestrator.executeBuild(build, false));
+      MeasureCache.invalidate();
+      PhaseTimer.run(Phase.CE_WAIT, () -> new SynchronousAnalyzer(orchestrator.getServer()).waitForDone());
+      return result;
+    } else if (arguments.contains("begin")) {
+      if (build instanceof ScannerForMSBuild && ((ScannerForMSBuild) build).getProjectKey() != null) {
+        // The key of a scanner created by newScanner is only known now, the project of a previous test may still be being deleted
+        ProjectCleaner.awaitDeletion(List.of(((ScannerForMSBuild) build).getProjectKey()));
+      }
+      return PhaseTimer.time(Phase.BEGIN, () -> quietly ? orchestrator.executeBuildQuietly(build) : orchestrator.executeBuild(build));
+    } else {
+      return quietly ? orchestrator.executeBuildQuietly(build) : orchestrator.executeBuild(build);
+    }
+  }
 
-    LOG.info("TEST SETUP: deleting projects analyzed before: " + currentDateTime);
+  public static void deleteProjects(Orchestrator orchestrator, Collection<String> projectKeys) {
+    if (projectKeys.isEmpty()) {
+      return;
+    }
+    LOG.info("TEST CLEANUP: deleting projects: " + projectKeys);
 
     orchestrator.getServer()
       .newHttpCall("/api/projects/bulk_delete")
       .setAdminCredentials()
       .setMethod(HttpMethod.POST)
-      .setParams("analyzedBefore", currentDateTime)
+      .setParam("projects", String.join(",", projectKeys))
       .execute();
   }
 
@@ -208,25 +264,54 @@ public class TestUtils {
     assertThat(cleanupStatus).isZero();
   }
 
-  public static Path projectDir(Path temp, String projectName) throws IOException {
-    File projectToCopy = Paths.get("projects").resolve(projectName).toFile();
-    File destination = new File(temp.toFile(), projectName).getCanonicalFile();
+  /**
+   * @param writableFiles files, relative to the fixture, that the test modifies: they are copied instead of linked.
+   */
+  public static Path projectDir(Path temp, String projectName, String... writableFiles) throws IOException {
+    long start = System.nanoTime();
+    try {
+      return FixtureMaterializer.materialize(projectName, emptyDir(temp, projectName), Arrays.asList(writableFiles));
+    } finally {
+      PhaseTimer.record(Phase.COPY, System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * Same as {@link #projectDir(Path, String, String...)} for a generated solution, which is generated the first time.
+   */
+  public static Path projectDir(Path temp, SyntheticSolution solution, String... writableFiles) throws IOException {
+    long start = System.nanoTime();
+    Path source;
+    try {
+      source = solution.generate();
+    } finally {
+      PhaseTimer.record(Phase.GENERATE, System.nanoTime() - start);
+    }
+    start = System.nanoTime();
+    try {
+      return FixtureMaterializer.materialize(solution.name(), source, emptyDir(temp, solution.name()), Arrays.asList(writableFiles));
+    } finally {
+      PhaseTimer.record(Phase.COPY, System.nanoTime() - start);
+    }
+  }
+
+  private static Path emptyDir(Path temp, String name) throws IOException {
+    File destination = new File(temp.toFile(), name).getCanonicalFile();
     FileUtils.deleteDirectory(destination);
-    Path newFolder = Files.createDirectories(destination.toPath());
-    FileUtils.copyDirectory(projectToCopy, newFolder.toFile());
-    return newFolder;
+    return Files.createDirectories(destination.toPath());
   }
 
   public static void runMSBuildWithBuildWrapper(Orchestrator orch, Path projectDir, File buildWrapperPath, File outDir,
     String... arguments) {
     Path msBuildPath = getMsBuildPath(orch);
 
-    int r = CommandExecutor.create().execute(Command.create(buildWrapperPath.toString())
+    // Run through LogMatcher, which samples the resources of the process tree, rather than CommandExecutor
+    int r = PhaseTimer.time(Phase.BUILD, () -> new LogMatcher(LOG::info).execute(Command.create(buildWrapperPath.toString())
       .addArgument("--out-dir")
       .addArgument(outDir.toString())
       .addArgument(msBuildPath.toString())
       .addArguments(arguments)
-      .setDirectory(projectDir.toFile()), TIMEOUT_LIMIT);
+      .setDirectory(projectDir.toFile()), TIMEOUT_LIMIT));
     assertThat(r).isZero();
   }
 
@@ -258,23 +343,24 @@ public class TestUtils {
       nugetRestore = nugetRestore.addArguments("-MSBuildPath", TestUtils.getMsBuildPath(orch).getParent().toString());
     }
 
-    int r = CommandExecutor.create().execute(nugetRestore, 300 * 1000);
+    int r = new LogMatcher(LOG::info).execute(nugetRestore, 300 * 1000);
     assertThat(r).isZero();
   }
 
-  public static BuildResult runDotnetCommand(Path workingDir, String dotnetCommand, String... arguments) {
+  public static SpooledBuildResult runDotnetCommand(Path workingDir, String dotnetCommand, String... arguments) {
     var argumentList = new ArrayList<>(Arrays.asList(arguments));
     argumentList.add(0, dotnetCommand);
     argumentList.add("-warnaserror:AD0001");
     argumentList.add("-nodereuse:false"); // This is mandatory, otherwise process node locks the dlls in .sonarqube preventing the test to delete temp directory
     argumentList.add("--verbosity:minimal"); // Change to "detailed" if more information is needed
 
-    var buildResult = new BuildResult();
-    StreamConsumer.Pipe writer = new StreamConsumer.Pipe(buildResult.getLogsWriter());
+    var buildResult = new SpooledBuildResult();
+    var matcher = new LogMatcher(new StreamConsumer.Pipe(buildResult.getLogsWriter()));
     var command = Command.create("dotnet").addArguments(argumentList).setDirectory(workingDir.toFile());
-    var status = CommandExecutor.create().execute(command, writer, TIMEOUT_LIMIT);
+    var status = PhaseTimer.time(Phase.BUILD, () -> matcher.execute(command, TIMEOUT_LIMIT));
     buildResult.addStatus(status);
-    return buildResult;
+    buildResult.addResourceUsage(matcher.resourceUsage());
+    return buildResult.complete();
   }
 
   private static Path getNuGetPath(Orchestrator orch) {
@@ -293,12 +379,9 @@ public class TestUtils {
   private static BuildResult runMSBuildQuietly(Orchestrator orch, Path projectDir, List<EnvironmentVariable> environmentVariables, long timeoutLimit, String... arguments) {
     Path msBuildPath = getMsBuildPath(orch);
 
-    BuildResult result = new BuildResult();
+    SpooledBuildResult result = new SpooledBuildResult();
     StreamConsumer.Pipe writer = new StreamConsumer.Pipe(result.getLogsWriter());
 
-    int status = -1;
-    int attempts = 0;
-    boolean mustRetry = true;
     Command command = Command.create(msBuildPath.toString())
       .addArguments("-nodeReuse:false")
       .addArguments(arguments)
@@ -306,17 +389,39 @@ public class TestUtils {
     for (EnvironmentVariable environmentVariable : environmentVariables) {
       command.setEnvironmentVariable(environmentVariable.getName(), environmentVariable.getValue());
     }
-    while (mustRetry && attempts < MSBUILD_RETRY) {
-      status = CommandExecutor.create().execute(command, writer, timeoutLimit);
-      attempts++;
-      mustRetry = status != 0;
-      if (mustRetry) {
-        LOG.warn("Failed to build, will retry " + (MSBUILD_RETRY - attempts) + " times.");
+    int status;
+    int attempt = 0;
+    while (true) {
+      attempt++;
+      var matcher = BuildRetryPolicy.watch(new LogMatcher(writer));
+      long start = System.nanoTime();
+      status = matcher.execute(command, timeoutLimit);
+      result.addResourceUsage(matcher.resourceUsage());
+      if (status == 0) {
+        PhaseTimer.record(Phase.BUILD, System.nanoTime() - start);
+        break;
       }
+      var failure = BuildRetryPolicy.classify(matcher);
+      if (!MSBUILD_RETRY_POLICY.shouldRetry(failure, attempt)) {
+        PhaseTimer.record(Phase.BUILD, System.nanoTime() - start);
+        LOG.warn("Failed to build after {} attempt(s), {} failure is not retried", attempt, failure);
+        break;
+      }
+      var backoff = MSBUILD_RETRY_POLICY.backoff(attempt);
+      LOG.warn("Failed to build with a transient failure, will retry in {} ms", backoff.toMillis());
+      try {
+        Thread.sleep(backoff.toMillis());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+      long wastedNanos = System.nanoTime() - start;
+      PhaseTimer.record(Phase.BUILD_RETRY, wastedNanos);
+      LOG.warn("TEST RETRY: {} ms wasted by attempt {} of the build", TimeUnit.NANOSECONDS.toMillis(wastedNanos), attempt);
     }
 
     result.addStatus(status);
-    return result;
+    return result.complete();
   }
 
   public static Path getMsBuildPath(Orchestrator orch) {
@@ -376,7 +481,7 @@ public class TestUtils {
       endCommand.setEnvironmentVariable(pair.getName(), pair.getValue());
     }
 
-    BuildResult result = orchestrator.executeBuild(endCommand);
+    BuildResult result = executeBuild(orchestrator, endCommand);
 
     if (result.isSuccess()) {
       TestUtils.dumpComponentList(orchestrator, projectKey);
@@ -389,17 +494,26 @@ public class TestUtils {
   }
 
   public static List<Issue> issuesForComponent(Orchestrator orchestrator, String componentKey) {
-    return newWsClient(orchestrator)
-      .issues()
-      .search(new org.sonarqube.ws.client.issues.SearchRequest().setComponentKeys(Collections.singletonList(componentKey)))
-      .getIssuesList();
+    return IssueSearch.stream(newWsClient(orchestrator), () -> new SearchRequest().setComponentKeys(Collections.singletonList(componentKey)))
+      .collect(Collectors.toList());
   }
 
   public static List<Issue> allIssues(Orchestrator orchestrator) {
-    return newWsClient(orchestrator)
-      .issues()
-      .search(new org.sonarqube.ws.client.issues.SearchRequest())
-      .getIssuesList();
+    return IssueSearch.stream(newWsClient(orchestrator), TestUtils::allIssuesRequest).collect(Collectors.toList());
+  }
+
+  public static List<Issue> allIssues(Orchestrator orchestrator, String ruleKeyPrefix) {
+    return IssueSearch.stream(newWsClient(orchestrator), TestUtils::allIssuesRequest, ruleKeyPrefix).collect(Collectors.toList());
+  }
+
+  private static SearchRequest allIssuesRequest() {
+    var request = new SearchRequest();
+    var scope = ProjectScope.current();
+    if (scope != null) {
+      // Other test classes may be analyzing their own projects on the same server at the same time
+      request.setProjects(new ArrayList<>(scope.keys()));
+    }
+    return request;
   }
 
   public static String getDefaultBranchName(Orchestrator orchestrator) {
@@ -407,20 +521,14 @@ public class TestUtils {
   }
 
   public static WsClient newWsClient(Orchestrator orchestrator) {
-    return WsClientFactories.getDefault().newClient(HttpConnector.newBuilder()
-      .url(orchestrator.getServer().getUrl())
-      .token(getNewToken(orchestrator))
-      .build());
+    return WsClientPool.withToken(orchestrator.getServer().getUrl(), getNewToken(orchestrator));
   }
 
   public static WsClient newAdminWsClient(Orchestrator orchestrator) {
-    return WsClientFactories.getDefault().newClient(HttpConnector.newBuilder()
-      .url(orchestrator.getServer().getUrl())
-      .credentials("admin", "admin")
-      .build());
+    return WsClientPool.withCredentials(orchestrator.getServer().getUrl(), "admin", "admin");
   }
 
-  public static String getNewToken(Orchestrator orchestrator) {
+  public static synchronized String getNewToken(Orchestrator orchestrator) {
     if (token == null) {
       token = newAdminWsClient(orchestrator).userTokens().generate(new GenerateRequest().setName("its")).getToken();
     }
@@ -443,14 +551,32 @@ public class TestUtils {
     return result;
   }
 
-  // The (?s) flag indicates that the dot special character ( . ) should additionally match the following
-  // line terminator ("newline") characters in a string, which it would not match otherwise.
+  // The pattern is searched line by line, unless it matches a line terminator itself. Then it is searched in the whole input,
+  // with the dot also matching line terminators as the former "(?s).*pattern.*" regex did.
   public static void matchesSingleLine(String input, String pattern) {
-    assertThat(input).matches("(?s).*"+pattern+".*");
+    if (MULTILINE_PATTERN.matcher(pattern).find()) {
+      assertThat(Pattern.compile(pattern, Pattern.DOTALL).matcher(input).find()).as("Pattern '%s' found in the logs", pattern).isTrue();
+    } else {
+      assertThat(LogSearch.of(input).anyLineMatches(Pattern.compile(pattern))).as("Pattern '%s' found in a line of the logs", pattern).isTrue();
+    }
+  }
+
+  public static void containsAll(String input, String... values) {
+    assertThat(LogSearch.of(input).missing(values)).as("Values missing from the logs").isEmpty();
+  }
+
+  public static void doesNotContainAny(String input, String... values) {
+    assertThat(LogSearch.of(input).present(values)).as("Values unexpectedly found in the logs").isEmpty();
   }
 
   @CheckForNull
   private static Measures.Measure getMeasure(@Nullable String componentKey, String metricKey, Orchestrator orchestrator) {
+    if (componentKey != null) {
+      var measures = MeasureCache.current().componentMeasures(newWsClient(orchestrator), componentKey, metricKey);
+      if (measures != null) {
+        return measures.get(metricKey);
+      }
+    }
     Measures.ComponentWsResponse response = newWsClient(orchestrator).measures().component(new ComponentRequest()
       .setComponent(componentKey)
       .setMetricKeys(Collections.singletonList(metricKey)));
@@ -466,7 +592,7 @@ public class TestUtils {
       .getTask();
   }
 
-  private static String extractCeTaskId(BuildResult buildResult) {
+  public static String extractCeTaskId(BuildResult buildResult) {
     List<String> taskIds = extractCeTaskIds(buildResult);
     if (taskIds.size() != 1) {
       throw new IllegalStateException("More than one task id retrieved from logs.");
@@ -0,0 +1,118 @@
+/*
+ * SonarScanner for .NET
+ * Copyright (C) 2016-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.it.scanner.msbuild.utils;
+
+import com.google.gson.JsonParser;
+import com.sonar.orchestrator.Orchestrator;
+import com.sonar.orchestrator.http.HttpMethod;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Receives the webhooks sent by the server when the processing of an analysis report ends, so that tests can wait for it
+ * without polling.
+ * <p>
+ * The server only calls webhooks on the local network when {@code sonar.validateWebhooks} is false.
+ */
+public class WebhookReceiver {
+  private static final Logger LOG = LoggerFactory.getLogger(WebhookReceiver.class);
+  private static final String WEBHOOK_NAME = "its-webhook-receiver";
+
+  // CE task id -> status of the task
+  private final Map<String, CompletableFuture<String>> tasks = new ConcurrentHashMap<>();
+  private final Server server;
+
+  private WebhookReceiver() throws Exception {
+    server = new Server();
+    var connector = new ServerConnector(server);
+    connector.setHost("localhost");
+    connector.setPort(0);
+    server.addConnector(connector);
+    var context = new ServletContextHandler();
+    context.addServlet(new ServletHolder(new WebhookServlet()), "/*");
+    server.setHandler(context);
+    server.start();
+  }
+
+  /**
+   * Starts a receiver and registers it as a global webhook of the server.
+   */
+  public static WebhookReceiver start(Orchestrator orchestrator) throws Exception {
+    var receiver = new WebhookReceiver();
+    try {
+      orchestrator.getServer().newHttpCall("api/webhooks/create")
+        .setMethod(HttpMethod.POST)
+        .setAdminCredentials()
+        .setParam("name", WEBHOOK_NAME)
+        .setParam("url", receiver.url())
+        .execute();
+    } catch (RuntimeException e) {
+      // Nobody else can stop it
+      try {
+        receiver.stop();
+      } catch (Exception stopFailure) {
+        e.addSuppressed(stopFailure);
+      }
+      throw e;
+    }
+    LOG.info("TEST SETUP: webhooks are received at {}", receiver.url());
+    return receiver;
+  }
+
+  public String url() {
+    return "http://localhost:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort() + "/";
+  }
+
+  /**
+   * @return the status of the Compute Engine task once it is done, as reported by the webhook.
+   */
+  public CompletableFuture<String> task(String taskId) {
+    return tasks.computeIfAbsent(taskId, x -> new CompletableFuture<>());
+  }
+
+  public void stop() throws Exception {
+    server.stop();
+  }
+
+  private class WebhookServlet extends HttpServlet {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+      var payload = JsonParser.parseReader(request.getReader()).getAsJsonObject();
+      var taskId = payload.get("taskId").getAsString();
+      var status = payload.get("status").getAsString();
+      LOG.info("Webhook received for task {}: {}", taskId, status);
+      task(taskId).complete(status);
+      response.setStatus(HttpServletResponse.SC_OK);
+    }
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * SonarScanner for .NET
+ * Copyright (C) 2016-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.it.scanner.msbuild.utils;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import org.sonarqube.ws.client.HttpConnector;
+import org.sonarqube.ws.client.WsClient;
+import org.sonarqube.ws.client.WsClientFactories;
+import org.sonarqube.ws.client.WsConnector;
+import org.sonarqube.ws.client.WsRequest;
+import org.sonarqube.ws.client.WsResponse;
+
+/**
+ * Shares one {@link WsClient} per server URL and credentials, instead of creating a new one for each call: the connections of
+ * its {@link HttpConnector} are kept alive and reused. The calls are recorded in {@link WsMetrics}.
+ */
+public class WsClientPool {
+  private static final Map<Key, Entry> CLIENTS = new ConcurrentHashMap<>();
+
+  private WsClientPool() {
+  }
+
+  public static WsClient withToken(String url, String token) {
+    return CLIENTS.computeIfAbsent(new Key(url, token, null), x -> new Entry(HttpConnector.newBuilder().url(url).token(token).build())).client;
+  }
+
+  public static WsClient withCredentials(String url, String login, String password) {
+    return CLIENTS.computeIfAbsent(new Key(url, login, password),
+      x -> new Entry(HttpConnector.newBuilder().url(url).credentials(login, password).build())).client;
+  }
+
+  /**
+   * Closes the pooled connections, to be called when the server stops.
+   */
+  public static void clear() {
+    CLIENTS.values().forEach(x -> x.connector.okHttpClient().connectionPool().evictAll());
+    CLIENTS.clear();
+  }
+
+  private static class Entry {
+    private final HttpConnector connector;
+    private final WsClient client;
+
+    private Entry(HttpConnector connector) {
+      this.connector = connector;
+      this.client = WsClientFactories.getDefault().newClient(new MeteredConnector(connector));
+    }
+  }
+
+  private static class MeteredConnector implements WsConnector {
+    private final WsConnector delegate;
+
+    private MeteredConnector(WsConnector delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public String baseUrl() {
+      return delegate.baseUrl();
+    }
+
+    @Override
+    public WsResponse call(WsRequest request) {
+      var testMetrics = WsMetrics.current();
+      long start = System.nanoTime();
+      boolean failed = true;
+      try {
+        var response = delegate.call(request);
+        failed = !response.isSuccessful();
+        return response;
+      } finally {
+        long nanos = System.nanoTime() - start;
+        WsMetrics.record(testMetrics, nanos, failed);
+        PhaseTimer.record(request.getPath().contains("api/ce/") ? PhaseTimer.Phase.CE_WAIT : PhaseTimer.Phase.SERVER_API, nanos);
+      }
+    }
+  }
+
+  private static class Key {
+    private final String url;
+    private final String login;
+    private final String password;
+
+    private Key(String url, String login, String password) {
+      this.url = url;
+      this.login = login;
+      this.password = password;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      var other = (Key) o;
+      return url.equals(other.url) && Objects.equals(login, other.login) && Objects.equals(password, other.password);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(url, login, password);
+    }
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * SonarScanner for .NET
+ * Copyright (C) 2016-2024 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.sonar.it.scanner.msbuild.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+import javax.annotation.CheckForNull;
+
+/**
+ * Count and latency histogram of the web service calls. The calls are recorded globally, and in the metrics opened for the
+ * current test by {@link #open()}.
+ */
+public class WsMetrics {
+  public static final WsMetrics GLOBAL = new WsMetrics();
+  private static final ThreadLocal<WsMetrics> CURRENT = new ThreadLocal<>();
+  private static final long[] BUCKET_BOUNDS_MS = {10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000};
+
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+  private final AtomicLong totalNanos = new AtomicLong();
+  private final AtomicLong maxNanos = new AtomicLong();
+  // The last bucket holds the calls above the last bound
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_BOUNDS_MS.length + 1);
+
+  public static WsMetrics open() {
+    var metrics = new WsMetrics();
+    CURRENT.set(metrics);
+    return metrics;
+  }
+
+  @CheckForNull
+  public static WsMetrics current() {
+    return CURRENT.get();
+  }
+
+  /**
+   * Runs a call made by another thread on behalf of a test, in the metrics of that test.
+   */
+  public static <T> T callWith(@CheckForNull WsMetrics testMetrics, Supplier<T> call) {
+    var previous = CURRENT.get();
+    CURRENT.set(testMetrics);
+    try {
+      return call.get();
+    } finally {
+      CURRENT.set(previous);
+    }
+  }
+
+  @CheckForNull
+  public static WsMetrics close() {
+    var metrics = CURRENT.get();
+    CURRENT.remove();
+    return metrics;
+  }
+
+  /**
+   * Records a call in the global metrics and in the given test metrics, which are the ones of the calling thread by default.
+   */
+  static void record(@CheckForNull WsMetrics testMetrics, long nanos, boolean failed) {
+    GLOBAL.add(nanos, failed);
+    if (testMetrics != null) {
+      testMetrics.add(nanos, failed);
+    }
+  }
+
+  private void add(long nanos, boolean failed) {
+    count.incrementAndGet();
+    if (failed) {
+      failures.incrementAndGet();
+    }
+    totalNanos.addAndGet(nanos);
+    maxNanos.accumulateAndGet(nanos, Math::max);
+    long ms = nanos / 1_000_000;
+    int bucket = 0;
+    while (bucket < BUCKET_BOUNDS_MS.length && ms > BUCKET_BOUNDS_MS[bucket]) {
+      bucket++;
+    }
+    buckets.incrementAndGet(bucket);
+  }
+
+  public long count() {
+    return count.get();
+  }
+
+  public long failures() {
+    return failures.get();
+  }
+
+  public long meanMillis() {
+    long calls = count.get();
+    return calls == 0 ? 0 : totalNanos.get() / calls / 1_000_000;
+  }
+
+  public long maxMillis() {
+    return maxNanos.get() / 1_000_000;
+  }
+
+  /**
+   * @return the number of calls per latency bucket, the bounds are {@code <=10ms, <=25ms, ..., <=10000ms, >10000ms}.
+   */
+  public long[] histogram() {
+    var result = new long[buckets.length()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = buckets.get(i);
+    }
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    var histogram = new StringBuilder();
+    for (int i = 0; i < buckets.length(); i++) {
+      long calls = buckets.get(i);
+      if (calls > 0) {
+        histogram.append(histogram.length() == 0 ? "" : ", ")
+          .append(i < BUCKET_BOUNDS_MS.length ? "<=" + BUCKET_BOUNDS_MS[i] : ">" + BUCKET_BOUNDS_MS[BUCKET_BOUNDS_MS.length - 1])
+          .append("ms: ").append(calls);
+      }
+    }
+    return count() + " calls, " + failures() + " failed, mean " + meanMillis() + " ms, max " + maxMillis() + " ms [" + histogram + "]";
+  }
+}